@@ -1,9 +1,11 @@
 package controllers.autoSubgoalMCTS;
 
+import controllers.autoSubgoalMCTS.RewardGames.ForwardCallCounter;
 import controllers.autoSubgoalMCTS.RewardGames.NaiveRewardGame;
 import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
 import framework.core.Controller;
 import framework.core.Game;
+import framework.core.GameState;
 
 import java.util.Random;
 
@@ -21,49 +23,77 @@ public abstract class AbstractController extends Controller
     public static int maxForwardCalls = 70000;
 
     private BaseAction currAction = null;
+    private GameState rootState = new GameState();
+    // Forward model calls of this controller, shared by all the games it simulates
+    protected ForwardCallCounter forwardCalls = new ForwardCallCounter();
 
     @Override
     public int getAction(Game a_game, long dueTimeMs)
     {
-        RewardGame.resetCalls();
+        forwardCalls.reset();
+        search(a_game, dueTimeMs);
+        //System.out.println("FMCalls: " + forwardCalls.get());
 
+        // Return an action
+        if(currAction == null)
+        {
+            currAction = getBestAction();
+        }
+        int nextAction = currAction.lowLevelAction;
+        currAction.repetitions--;
+        if(currAction.repetitions == 0)
+            currAction = null;
+        return nextAction;
+    }
+
+    // Searches from the given state until the budget is used up, by default calling step() on this thread
+    protected void search(Game a_game, long dueTimeMs)
+    {
+        RewardGame game = new NaiveRewardGame(a_game.getSimulationCopy(), forwardCalls);
+        runSearch(game, rootState, dueTimeMs, maxForwardCalls, this::step);
+    }
+
+    // Calls searchStep until the budget is used up, each time on the state of game after the action being executed.
+    // rootState is overwritten with that state, and maxCalls only applies to the ForwardCalls stop condition
+    protected void runSearch(RewardGame game, GameState rootState, long dueTimeMs, int maxCalls, ISearchStep searchStep)
+    {
         if(stopCondition == StopCondition.Time)
         {
             long startTime = System.nanoTime();
             long timeBudgetMs = dueTimeMs - System.currentTimeMillis();
+            // Every iteration starts from the same state, so restore a snapshot instead of copying the game
+            game.copyInto(rootState);
             // Run until the timeBudget is used up, with a little bit of remaining time to collect the action
             while((System.nanoTime() - startTime) / 1000000 < timeBudgetMs - 5)
             {
-                RewardGame game = new NaiveRewardGame(a_game.getCopy());
+                game.restoreFrom(rootState, 0);
                 // If we are currently executing an action, start searching after we've executed it
                 if(currAction != null)
                     currAction.apply(game);
-                step(game.getCopy());
+                searchStep.step(game);
             }
         }
         else if(stopCondition == StopCondition.ForwardCalls)
         {
-            RewardGame game = new NaiveRewardGame(a_game.getCopy());
             // If we are currently executing an action, start searching after we've executed it
             if(currAction != null)
                 currAction.apply(game);
-            while(game.getCalls() < maxForwardCalls)
+            game.copyInto(rootState);
+            double rootReward = game.getRewardSum();
+            while(game.getCalls() < maxCalls)
             {
-                step(game.getCopy());
+                game.restoreFrom(rootState, rootReward);
+                searchStep.step(game);
             }
         }
-        //System.out.println("FMCalls: " + RewardGame.getCalls());
+    }
 
-        // Return an action
-        if(currAction == null)
-        {
-            currAction = getBestAction();
-        }
-        int nextAction = currAction.lowLevelAction;
-        currAction.repetitions--;
-        if(currAction.repetitions == 0)
-            currAction = null;
-        return nextAction;
+    // Number of forward model calls used by the last call to getAction
+    public int getForwardCalls() { return forwardCalls.get(); }
+
+    protected interface ISearchStep
+    {
+        void step(RewardGame game);
     }
 
     protected abstract void step(RewardGame game);
@@ -10,13 +10,18 @@ import controllers.autoSubgoalMCTS.SubgoalSearch.MCTSNoveltySearch.MCTSNoveltySe
 import controllers.autoSubgoalMCTS.SubgoalSearch.MCTSNoveltySearch.SearchData;
 import controllers.autoSubgoalMCTS.SubgoalSearch.RandomPredicateSearch.RandomPredicateSearch;
 import controllers.autoSubgoalMCTS.SubgoalSearch.ScalarNSLCSearch.ScalarNSLCSearch;
+import controllers.autoSubgoalMCTS.RewardGames.ForwardCallCounter;
+import controllers.autoSubgoalMCTS.RewardGames.NaiveRewardGame;
 import framework.core.Controller;
 import framework.core.Game;
+import framework.core.GameState;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class AutoSubgoalController extends AbstractController
 {
@@ -26,8 +31,42 @@ public class AutoSubgoalController extends AbstractController
 
     public static int maxRolloutDepth = 25;
 
-    private MCTSNode<SubgoalData> root;
-    private RewardAccumulator rewardAccumulator;
+    // Number of independent trees built in parallel (root parallelisation), each one on its own thread with its own
+    // random numbers and subgoal searches. The forward model budget is split between them. 1 builds a single tree
+    public static int numTrees = 1;
+
+    // Number of rollouts run from each expanded node (leaf parallelisation), all but one on other threads. The mean of
+    // their rewards is backpropagated. 1 runs a single rollout on the thread of the tree
+    public static int numRollouts = 1;
+
+    // Nodes reaching the same quantised state (see TranspositionTable) share one subgoal search and the macro actions
+    // it finds, instead of searching for the same subgoals again. Each tree has its own table. Ignored for searches
+    // whose result depends on the node they search from (see ISubgoalSearch.dependsOnParentNode)
+    public static boolean useTranspositions = false;
+    public static double transpositionCellSize = 5;
+    public static double transpositionVelocityStep = 0.25;
+    public static int maxTranspositions = 1000;
+
+    // Expand a leaf as soon as its subgoal search reports convergence instead of waiting until it is done, the forward
+    // model calls saved go to the rest of the tree
+    public static boolean expandOnConvergence = false;
+
+    // Capacity of the cache of the macro actions found from each quantised state (see SubgoalCache), kept across
+    // decisions. Each tree has its own cache, 0 disables it
+    public static int subgoalCacheSize = 0;
+    public static double subgoalCacheCellSize = 5;
+    public static double subgoalCacheVelocityStep = 0.25;
+
+    // Threads of the trees and of the parallel rollouts, shared by all the controllers. Separate pools, the trees
+    // wait for their rollouts
+    private static final WorkerPool treeWorkerPool = new WorkerPool("AutoSubgoalController worker");
+    private static final WorkerPool rolloutWorkerPool = new WorkerPool("AutoSubgoalController rollout worker");
+
+    // trees[0] is built on the thread calling getAction, the rest on workers
+    private SubgoalTree[] trees;
+    private ExecutorService workers;
+    private ExecutorService rolloutWorkers;
+    private int rolloutsPerLeaf;
     private IBehaviourFunction behaviourFunction;
 
     public AutoSubgoalController(Game game, long dueTimeMs)
@@ -46,157 +85,203 @@ public class AutoSubgoalController extends AbstractController
             //subgoalSearch = new ScalarNSLCSearch(behaviourFunction, rng, 200, 3);
         }
 
-        this.root = new MCTSNode<>(new SubgoalData());
-        this.root.data.latentState = new double[behaviourFunction.getLatentSize()];
-        this.root.data.subgoalSearch = subgoalSearch.createNewSearch(this.root);
+        trees = new SubgoalTree[Math.max(1, numTrees)];
+        trees[0] = new SubgoalTree(subgoalSearch, rng);
+        for(int i = 1; i < trees.length; i++)
+        {
+            Random treeRng = new Random(rng.nextLong());
+            trees[i] = new SubgoalTree(subgoalSearch.copyWithRandom(treeRng), treeRng);
+        }
 
-        rewardAccumulator = new RewardAccumulator(1);
+        if(trees.length > 1)
+        {
+            workers = treeWorkerPool.get(trees.length - 1);
+        }
+
+        rolloutsPerLeaf = Math.max(1, numRollouts);
+        if(rolloutsPerLeaf > 1)
+        {
+            // Enough threads for the rollouts of all the trees at once
+            rolloutWorkers = rolloutWorkerPool.get(trees.length * (rolloutsPerLeaf - 1));
+        }
     }
 
     @Override
     protected void step(RewardGame game)
     {
-        // Selection
-        ArrayList<MCTSNode<SubgoalData>> subgoalHistory = new ArrayList<>();
-        MCTSNode<SubgoalData> currNode = root;
-        int depth = 0;
-        while (!game.isEnded() && currNode.data.subgoalSearch == null && depth < maxRolloutDepth)
-        {
-            subgoalHistory.add(currNode);
-            currNode.data.lastSeenPosition = game.getState().getShip().s.copy();
-            behaviourFunction.toLatent(game.getState(), currNode.data.latentState);
+        trees[0].step(game);
+    }
 
-            currNode = selectUCT(currNode, explorationRate, rng);
-            rewardAccumulator.addReward(currNode.data.macroAction.apply(game));
-            depth += currNode.data.macroAction.size();
+    @Override
+    protected void search(Game a_game, long dueTimeMs)
+    {
+        if(trees.length == 1)
+        {
+            super.search(a_game, dueTimeMs);
+            return;
         }
-        subgoalHistory.add(currNode);
-        currNode.data.lastSeenPosition = game.getState().getShip().s.copy();
-        behaviourFunction.toLatent(game.getState(), currNode.data.latentState);
 
-        // Expansion
-        if (!game.isEnded() && depth < maxRolloutDepth)
+        // Copy the game for each tree here, the game passed by the caller is not thread safe
+        ArrayList<Future<?>> results = new ArrayList<>();
+        for(int i = 1; i < trees.length; i++)
         {
-            if(currNode.data.subgoalSearch.isDone())
-            {
-                for(MacroAction a : currNode.data.subgoalSearch.getMacroActions())
-                {
-                    SubgoalData newData = new SubgoalData();
-                    MCTSNode<SubgoalData> newNode = currNode.addChild(newData);
-                    newData.subgoalSearch = subgoalSearch.createNewSearch(newNode);
-                    newData.macroAction = a;
-                    newData.latentState = new double[behaviourFunction.getLatentSize()];
-                }
-                currNode.data.subgoalSearch = null;
-
-                // Execute one macro action
-                currNode = currNode.children.get(0);
-                rewardAccumulator.addReward(currNode.data.macroAction.apply(game));
-                depth += currNode.data.macroAction.size();
-            }
-            else
-            {
-                double rewardBefore = game.getRewardSum();
-                depth += currNode.data.subgoalSearch.step(game);
-                rewardAccumulator.addReward(game.getRewardSum() - rewardBefore);
-            }
-
-            // Simulation
-            rewardAccumulator.addReward(rollout(game, depth, rewardAccumulator));
+            SubgoalTree tree = trees[i];
+            RewardGame game = tree.createGame(a_game);
+            int maxCalls = getTreeBudget(i);
+            results.add(workers.submit(() -> runSearch(game, tree.rootState, dueTimeMs, maxCalls, tree::step)));
         }
+        runSearch(trees[0].createGame(a_game), trees[0].rootState, dueTimeMs, getTreeBudget(0), trees[0]::step);
 
-        // Backpropagation
-        double noveltyScore = 0;
-        double[] currLatentPos = new double[behaviourFunction.getLatentSize()];
-        behaviourFunction.toLatent(game.getState(), currLatentPos);
-        // Find the n-closest neighbors from all subgoals
-        int n = subgoalHistory.size() > 3 ? 3 : subgoalHistory.size();
-        Collections.sort(subgoalHistory, (MCTSNode<SubgoalData> v1, MCTSNode<SubgoalData> v2) ->
+        try
         {
-            double v1Dist = latentDist(v1.data.latentState, currLatentPos);
-            double v2Dist = latentDist(v2.data.latentState, currLatentPos);
-            return v1Dist > v2Dist ? 1 : v1Dist < v2Dist ? -1 : 0;
-        });
-
-        for(int i = 0; i < n; i++)
+            for(Future<?> result : results)
+                result.get();
+        }
+        catch(InterruptedException | ExecutionException e)
         {
-            noveltyScore += latentDist(currLatentPos, subgoalHistory.get(i).data.latentState);
+            throw new RuntimeException("Search on a worker thread failed", e);
         }
-        noveltyScore /= n;
 
-        double test = noveltyScore;
-        currNode.backpropagate(rewardAccumulator.getRewardSum(), node ->
-        {
-            node.data.noveltyScore += (test - node.data.noveltyScore) / node.visitCount;
-            node.data.noveltyLowerBound = Math.min(test, node.data.noveltyLowerBound);
-            node.data.noveltyUpperBound = Math.max(test, node.data.noveltyUpperBound);
-        });
-        rewardAccumulator.reset();
+        for(SubgoalTree tree : trees)
+            forwardCalls.add(tree.treeCalls.get());
+    }
+
+    // Forward model calls available to a tree, so that all the trees together use maxForwardCalls
+    private int getTreeBudget(int treeIndex)
+    {
+        int budget = maxForwardCalls / trees.length;
+        return treeIndex < maxForwardCalls % trees.length ? budget + 1 : budget;
     }
 
     @Override
     protected BaseAction getBestAction()
     {
-        if(root.children.size() == 0)
+        if(trees.length == 1)
+            return trees[0].getBestAction();
+
+        // Merge the statistics of all the roots, grouping their children by the first action they execute
+        double[] scoreSum = new double[NUM_ACTIONS];
+        int[] visits = new int[NUM_ACTIONS];
+        for(SubgoalTree tree : trees)
         {
-            System.out.println("Warning no subgoals found in time");
-            return new BaseAction(rng.nextInt(NUM_ACTIONS));
+            for(MCTSNode<SubgoalData> child : tree.root.children)
+            {
+                int action = child.data.macroAction.actions.get(0).lowLevelAction;
+                scoreSum[action] += child.score * child.visitCount;
+                visits[action] += child.visitCount;
+            }
         }
 
-        if(root.children.size() > 1)
+        int bestAction = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for(int action = 0; action < NUM_ACTIONS; action++)
         {
-            // Only keep the best child
-            MCTSNode<SubgoalData> selectedChild = getBestChild();
-            root.children.clear();
-            root.children.add(selectedChild);
+            if(visits[action] > 0 && scoreSum[action] / visits[action] > bestScore)
+            {
+                bestScore = scoreSum[action] / visits[action];
+                bestAction = action;
+            }
+        }
+
+        if(bestAction == -1)
+        {
+            System.out.println("Warning no subgoals found in time");
+            return new BaseAction(rng.nextInt(NUM_ACTIONS));
         }
 
-        BaseAction nextAction = root.children.get(0).data.macroAction.actions.get(0);
-        root.children.get(0).data.macroAction.actions.remove(0);
-        // Only one action left, aka this is our new root
-        if(root.children.get(0).data.macroAction.size() == 0)
+        // Every tree follows its best subgoal starting with that action, trees without one start again
+        BaseAction nextAction = null;
+        for(SubgoalTree tree : trees)
         {
-            root = root.children.get(0);
-            root.parent = null;
+            MCTSNode<SubgoalData> child = tree.getBestChild(bestAction);
+            if(child == null)
+            {
+                tree.reset();
+                continue;
+            }
+
+            BaseAction treeAction = tree.advance(child);
+            if(nextAction == null)
+                nextAction = treeAction;
         }
 
         return nextAction;
     }
 
-    private MCTSNode<SubgoalData> getBestChild()
+    // Fraction of the nodes created by the trees that were reused from their pools
+    public double getPoolHitRate()
     {
-        double maxScore = Double.NEGATIVE_INFINITY;
-        MCTSNode<SubgoalData> bestChild = null;
-        for(MCTSNode<SubgoalData> child : root.children)
+        long requests = 0;
+        long hits = 0;
+        for(SubgoalTree tree : trees)
         {
-            if(child.score > maxScore)
-            {
-                maxScore = child.score;
-                bestChild = child;
-            }
+            requests += tree.nodePool.getRequests();
+            hits += tree.nodePool.getHits();
         }
+        return requests == 0 ? 0 : (double)hits / requests;
+    }
 
-        return bestChild;
+    // Number of times a node found the state it reached in the transposition table of its tree
+    public long getTranspositionHits()
+    {
+        long hits = 0;
+        for(SubgoalTree tree : trees)
+        {
+            if(tree.transpositions != null)
+                hits += tree.transpositions.getHits();
+        }
+        return hits;
     }
 
-    private double rollout(RewardGame state, int currentDepth, RewardAccumulator accumulator)
+    // Expansions that used the macro actions in the subgoal cache instead of searching
+    public long getSubgoalCacheHits()
     {
-        double rewardSum = 0;
-        while(!state.isEnded() && currentDepth <= maxRolloutDepth)
+        long hits = 0;
+        for(SubgoalTree tree : trees)
         {
-            BaseAction nextAction = new BaseAction(rng.nextInt(Controller.NUM_ACTIONS));
-            rewardSum += nextAction.apply(state);
+            if(tree.subgoalCache != null)
+                hits += tree.subgoalCache.getHits();
+        }
+        return hits;
+    }
 
-            currentDepth++;
+    public long getSubgoalCacheMisses()
+    {
+        long misses = 0;
+        for(SubgoalTree tree : trees)
+        {
+            if(tree.subgoalCache != null)
+                misses += tree.subgoalCache.getMisses();
+        }
+        return misses;
+    }
+
+    public long getSubgoalCacheEvictions()
+    {
+        long evictions = 0;
+        for(SubgoalTree tree : trees)
+        {
+            if(tree.subgoalCache != null)
+                evictions += tree.subgoalCache.getEvictions();
         }
-        return rewardSum;
+        return evictions;
+    }
+
+    // Highest number of nodes that were part of the trees at once (summed over the trees)
+    public int getPeakLiveNodes()
+    {
+        int peak = 0;
+        for(SubgoalTree tree : trees)
+            peak += tree.nodePool.getPeakLiveNodes();
+        return peak;
     }
 
     @Override
     public synchronized void paint(Graphics2D graphics)
     {
         graphics.setColor(Color.yellow);
-        drawSubgoals(graphics, root);
+        for(SubgoalTree tree : trees)
+            drawSubgoals(graphics, tree.root);
         //PositionGridPredicate predicate = new PositionGridPredicate(25, 5);
         //predicate.render(graphics, lastState);
     }
@@ -221,39 +306,385 @@ public class AutoSubgoalController extends AbstractController
         }
     }
 
-    private MCTSNode<SubgoalData> selectUCT(MCTSNode<SubgoalData> node, double explorationRate, Random rng)
+    private double latentDist(double[] v1, double[] v2)
     {
-        double highestUCT = Double.NEGATIVE_INFINITY;
-        MCTSNode<SubgoalData> bestChild = null;
-        for (MCTSNode<SubgoalData> child : node.children)
+        double sumSquared = 0;
+        for(int i = 0; i < v1.length; i++)
         {
-            if (child.fullyExplored)
-                continue;
-            if (child.visitCount == 0)
-                return child;
+            double delta = v1[i] - v2[i];
+            sumSquared += delta * delta;
+        }
+        return Math.sqrt(sumSquared);
+    }
 
-            double uct = (child.score - node.lowerBound) / (node.upperBound - node.lowerBound + 1);
-            uct += explorationRate * Math.sqrt(Math.log(node.visitCount) / child.visitCount);
-            uct += rng.nextDouble() * 1e-8; // Resolve ties randomly
+    // One search tree with everything it modifies while searching, so several trees can be built at the same time
+    private class SubgoalTree
+    {
+        MCTSNode<SubgoalData> root;
+        RewardAccumulator rewardAccumulator;
+        ISubgoalSearch searchPrototype;
+        Random rng;
+        GameState rootState;
+        ForwardCallCounter treeCalls;
+        // Nodes pruned from the tree when the root moves on, reused by the next expansions
+        NodePool<MCTSNode<SubgoalData>> nodePool;
+        // Subgoal searches of expanded or pruned nodes, reused by the next leaves
+        NodePool<ISubgoalSearch> searchPool;
+        // Null if useTranspositions is disabled
+        TranspositionTable transpositions;
+        // Null if subgoalCacheSize is 0
+        SubgoalCache subgoalCache;
+        KNearestSelector nearestSubgoals;
+        double[] currLatentPos;
+
+        // Games of the rollouts run on other threads, created on the first parallel rollout and then restored from
+        // leafState, each one with its own forward model counter and random numbers
+        RewardGame[] rolloutGames;
+        ArrayList<Future<Double>> rolloutResults;
+        GameState leafState;
+
+        SubgoalTree(ISubgoalSearch searchPrototype, Random rng)
+        {
+            this.searchPrototype = searchPrototype;
+            this.rng = rng;
+            rewardAccumulator = new RewardAccumulator(1);
+            rootState = new GameState();
+            treeCalls = new ForwardCallCounter();
+            nearestSubgoals = new KNearestSelector(3);
+            currLatentPos = new double[behaviourFunction.getLatentSize()];
+            nodePool = new NodePool<>(() ->
+            {
+                SubgoalData data = new SubgoalData();
+                data.latentState = new double[behaviourFunction.getLatentSize()];
+                return new MCTSNode<>(data);
+            });
+            searchPool = new NodePool<>(() -> searchPrototype.createNewSearch(null));
+            if(useTranspositions && !searchPrototype.dependsOnParentNode())
+                transpositions = new TranspositionTable(transpositionCellSize, transpositionVelocityStep, maxTranspositions);
+            if(subgoalCacheSize > 0)
+                subgoalCache = new SubgoalCache(subgoalCacheSize, subgoalCacheCellSize, subgoalCacheVelocityStep);
+            reset();
+        }
+
+        void reset()
+        {
+            if(root != null)
+                releaseSubtree(root);
+            root = nodePool.acquire();
+        }
+
+        // Subgoal search for a leaf, created when the leaf is reached for the first time
+        ISubgoalSearch newSearch(MCTSNode<SubgoalData> node)
+        {
+            ISubgoalSearch search = searchPool.acquire();
+            search.reset(node);
+            return search;
+        }
+
+        // Returns the subgoal search of a node to the pool. Searches shared through a transposition are returned once
+        // they are done instead (see getMacroActions)
+        void releaseSearch(SubgoalData data)
+        {
+            if(data.subgoalSearch != null)
+                searchPool.release(data.subgoalSearch);
+            data.subgoalSearch = null;
+            data.transposition = null;
+        }
 
-            if (uct > highestUCT)
+        // Returns the node and all its descendants to the pool
+        void releaseSubtree(MCTSNode<SubgoalData> node)
+        {
+            for(MCTSNode<SubgoalData> child : node.children)
+                releaseSubtree(child);
+            releaseNode(node);
+        }
+
+        void releaseNode(MCTSNode<SubgoalData> node)
+        {
+            releaseSearch(node.data);
+            node.clear();
+            node.data.clear();
+            nodePool.release(node);
+        }
+
+        // Game to search on with its own forward model counter and random numbers, for root parallelisation
+        RewardGame createGame(Game a_game)
+        {
+            treeCalls.reset();
+            RewardGame game = new NaiveRewardGame(a_game.getSimulationCopy(), treeCalls);
+            game.setRandom(rng);
+            return game;
+        }
+
+        void step(RewardGame game)
+        {
+            // Selection
+            ArrayList<MCTSNode<SubgoalData>> subgoalHistory = new ArrayList<>();
+            MCTSNode<SubgoalData> currNode = root;
+            int depth = 0;
+            while (!game.isEnded() && !currNode.isLeafNode() && depth < maxRolloutDepth)
             {
-                highestUCT = uct;
-                bestChild = child;
+                subgoalHistory.add(currNode);
+                currNode.data.lastSeenPosition = game.getState().getShip().s.copy();
+                behaviourFunction.toLatent(game.getState(), currNode.data.latentState);
+
+                currNode = selectUCT(currNode, explorationRate, rng);
+                rewardAccumulator.addReward(currNode.data.macroAction.apply(game));
+                depth += currNode.data.macroAction.size();
             }
+            subgoalHistory.add(currNode);
+            currNode.data.lastSeenPosition = game.getState().getShip().s.copy();
+            behaviourFunction.toLatent(game.getState(), currNode.data.latentState);
+
+            // Expansion
+            if (!game.isEnded() && depth < maxRolloutDepth)
+            {
+                // A leaf starting from a state in the cache expands right away, without searching
+                ArrayList<MacroAction> macroActions = null;
+                boolean firstVisit = currNode.data.subgoalSearch == null && currNode.data.transposition == null;
+                if(subgoalCache != null && firstVisit)
+                    macroActions = subgoalCache.get(game.getState());
+
+                // The search of a leaf is created (or looked up in the transposition table) the first time it is needed
+                if(macroActions == null && firstVisit)
+                {
+                    if(transpositions != null)
+                        shareSubgoalSearch(currNode, game);
+                    else
+                        currNode.data.subgoalSearch = newSearch(currNode);
+                }
+
+                if(macroActions == null && isSearchDone(currNode.data))
+                {
+                    macroActions = getMacroActions(currNode.data);
+                    if(subgoalCache != null)
+                        subgoalCache.put(game.getState(), macroActions);
+                }
+
+                if(macroActions != null)
+                {
+                    for(MacroAction a : macroActions)
+                    {
+                        MCTSNode<SubgoalData> newNode = currNode.addChild(nodePool.acquire());
+                        newNode.data.macroAction = a;
+                    }
+                    releaseSearch(currNode.data);
+
+                    // Execute one macro action
+                    currNode = currNode.children.get(0);
+                    rewardAccumulator.addReward(currNode.data.macroAction.apply(game));
+                    depth += currNode.data.macroAction.size();
+                }
+                else
+                {
+                    double rewardBefore = game.getRewardSum();
+                    depth += getSubgoalSearch(currNode.data).step(game);
+                    rewardAccumulator.addReward(game.getRewardSum() - rewardBefore);
+                }
+
+                // Simulation
+                rewardAccumulator.addReward(rolloutsPerLeaf > 1 ? parallelRollout(game, depth) : rollout(game, depth, rng));
+            }
+
+            // Backpropagation
+            behaviourFunction.toLatent(game.getState(), currLatentPos);
+            // Find the n-closest neighbors from all subgoals
+            nearestSubgoals.clear();
+            for(int i = 0; i < subgoalHistory.size(); i++)
+            {
+                nearestSubgoals.offer(i, latentDist(subgoalHistory.get(i).data.latentState, currLatentPos));
+            }
+            double noveltyScore = nearestSubgoals.getDistanceSum() / nearestSubgoals.size();
+
+            double test = noveltyScore;
+            currNode.backpropagate(rewardAccumulator.getRewardSum(), node ->
+            {
+                node.data.noveltyScore += (test - node.data.noveltyScore) / node.visitCount;
+                node.data.noveltyLowerBound = Math.min(test, node.data.noveltyLowerBound);
+                node.data.noveltyUpperBound = Math.max(test, node.data.noveltyUpperBound);
+            });
+            rewardAccumulator.reset();
         }
 
-        return bestChild;
-    }
+        // Makes the node use the entry of its state in the transposition table. The search of the entry is created if
+        // the state is new, once the entry has the macro actions of the state the node expands with them right away
+        void shareSubgoalSearch(MCTSNode<SubgoalData> node, RewardGame game)
+        {
+            TranspositionTable.Entry entry = transpositions.get(game.getState());
+            if(!entry.hasMacroActions() && entry.subgoalSearch == null)
+                entry.subgoalSearch = newSearch(node);
+            node.data.transposition = entry;
+        }
 
-    private double latentDist(double[] v1, double[] v2)
-    {
-        double sumSquared = 0;
-        for(int i = 0; i < v1.length; i++)
+        // Search of the node, the one of its transposition if it has one
+        ISubgoalSearch getSubgoalSearch(SubgoalData data)
         {
-            double delta = v1[i] - v2[i];
-            sumSquared += delta * delta;
+            return data.transposition != null ? data.transposition.subgoalSearch : data.subgoalSearch;
+        }
+
+        boolean isSearchDone(SubgoalData data)
+        {
+            if(data.transposition != null && data.transposition.hasMacroActions())
+                return true;
+            ISubgoalSearch search = getSubgoalSearch(data);
+            return search.isDone() || (expandOnConvergence && search.hasConverged());
+        }
+
+        // Macro actions found by the subgoal search of a node, reusing the ones of its transposition if there are any.
+        // The search of a transposition goes back to the pool as soon as its macro actions are kept in the entry
+        ArrayList<MacroAction> getMacroActions(SubgoalData data)
+        {
+            TranspositionTable.Entry entry = data.transposition;
+            if(entry == null)
+                return data.subgoalSearch.getMacroActions();
+            if(entry.hasMacroActions())
+                return entry.getMacroActions();
+
+            ArrayList<MacroAction> macroActions = entry.subgoalSearch.getMacroActions();
+            entry.setMacroActions(macroActions);
+            searchPool.release(entry.subgoalSearch);
+            entry.subgoalSearch = null;
+            return macroActions;
+        }
+
+        BaseAction getBestAction()
+        {
+            if(root.children.size() == 0)
+            {
+                System.out.println("Warning no subgoals found in time");
+                return new BaseAction(rng.nextInt(NUM_ACTIONS));
+            }
+
+            // Only keep the best child
+            return advance(getBestChild(-1));
+        }
+
+        // Keeps only the given child of the root and removes the first action of its macro action, which is returned
+        BaseAction advance(MCTSNode<SubgoalData> selectedChild)
+        {
+            if(root.children.size() > 1)
+            {
+                for(MCTSNode<SubgoalData> child : root.children)
+                {
+                    if(child != selectedChild)
+                        releaseSubtree(child);
+                }
+                root.children.clear();
+                root.children.add(selectedChild);
+            }
+
+            BaseAction nextAction = root.children.get(0).data.macroAction.actions.get(0);
+            root.children.get(0).data.macroAction.actions.remove(0);
+            // Only one action left, aka this is our new root
+            if(root.children.get(0).data.macroAction.size() == 0)
+            {
+                MCTSNode<SubgoalData> oldRoot = root;
+                root = root.children.get(0);
+                root.parent = null;
+                releaseNode(oldRoot);
+            }
+
+            return nextAction;
+        }
+
+        // Child of the root with the highest score, only among the ones starting with firstAction if it is not -1
+        MCTSNode<SubgoalData> getBestChild(int firstAction)
+        {
+            double maxScore = Double.NEGATIVE_INFINITY;
+            MCTSNode<SubgoalData> bestChild = null;
+            for(MCTSNode<SubgoalData> child : root.children)
+            {
+                if(firstAction != -1 && child.data.macroAction.actions.get(0).lowLevelAction != firstAction)
+                    continue;
+
+                if(child.score > maxScore)
+                {
+                    maxScore = child.score;
+                    bestChild = child;
+                }
+            }
+
+            return bestChild;
+        }
+
+        // Runs rolloutsPerLeaf rollouts from the state of game, one of them on game itself, and returns their mean reward
+        double parallelRollout(RewardGame game, int currentDepth)
+        {
+            if(rolloutGames == null)
+            {
+                rolloutGames = new RewardGame[rolloutsPerLeaf - 1];
+                rolloutResults = new ArrayList<>(rolloutsPerLeaf - 1);
+                leafState = new GameState();
+                for(int i = 0; i < rolloutGames.length; i++)
+                {
+                    rolloutGames[i] = new NaiveRewardGame(game.getState().getSimulationCopy(), new ForwardCallCounter());
+                    rolloutGames[i].setRandom(new Random(rng.nextLong()));
+                }
+            }
+
+            game.copyInto(leafState);
+            rolloutResults.clear();
+            for(int i = 0; i < rolloutGames.length; i++)
+            {
+                RewardGame rolloutGame = rolloutGames[i];
+                rolloutGame.restoreFrom(leafState, game.getRewardSum());
+                rolloutGame.getCallCounter().reset();
+                rolloutResults.add(rolloutWorkers.submit(() -> rollout(rolloutGame, currentDepth, rolloutGame.getRandom())));
+            }
+
+            double rewardSum = rollout(game, currentDepth, rng);
+            try
+            {
+                for(int i = 0; i < rolloutGames.length; i++)
+                {
+                    rewardSum += rolloutResults.get(i).get();
+                    game.addCalls(rolloutGames[i].getCallCounter().get());
+                }
+            }
+            catch(InterruptedException | ExecutionException e)
+            {
+                throw new RuntimeException("Rollout on a worker thread failed", e);
+            }
+
+            return rewardSum / rolloutsPerLeaf;
+        }
+
+        double rollout(RewardGame state, int currentDepth, Random rng)
+        {
+            double rewardSum = 0;
+            while(!state.isEnded() && currentDepth <= maxRolloutDepth)
+            {
+                BaseAction nextAction = new BaseAction(rng.nextInt(Controller.NUM_ACTIONS));
+                rewardSum += nextAction.apply(state);
+
+                currentDepth++;
+            }
+            return rewardSum;
+        }
+
+        MCTSNode<SubgoalData> selectUCT(MCTSNode<SubgoalData> node, double explorationRate, Random rng)
+        {
+            double highestUCT = Double.NEGATIVE_INFINITY;
+            MCTSNode<SubgoalData> bestChild = null;
+            for (MCTSNode<SubgoalData> child : node.children)
+            {
+                if (child.fullyExplored)
+                    continue;
+                if (child.visitCount == 0)
+                    return child;
+
+                double uct = (child.score - node.lowerBound) / (node.upperBound - node.lowerBound + 1);
+                uct += explorationRate * Math.sqrt(Math.log(node.visitCount) / child.visitCount);
+                uct += rng.nextDouble() * 1e-8; // Resolve ties randomly
+
+                if (uct > highestUCT)
+                {
+                    highestUCT = uct;
+                    bestChild = child;
+                }
+            }
+
+            return bestChild;
         }
-        return Math.sqrt(sumSquared);
     }
 }
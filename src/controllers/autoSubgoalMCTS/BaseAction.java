@@ -27,12 +27,7 @@ public class BaseAction
 
     public double apply(RewardGame state)
     {
-        double sumBefore = state.getRewardSum();
-        for(int i = 0; i < repetitions; i++)
-        {
-            state.tick(lowLevelAction);
-        }
-        return state.getRewardSum() - sumBefore;
+        return state.tickRepeated(lowLevelAction, repetitions);
     }
 
     public void sample(Random rng)
@@ -0,0 +1,173 @@
+package controllers.autoSubgoalMCTS;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Version of MCTSNode that can be shared by several threads searching the same tree (tree parallelisation).
+// Each node guards its own statistics, children are claimed with an atomic counter so expansion never blocks,
+// and nodes on the path of a running iteration carry a virtual loss to spread the threads over the tree.
+// Used by a single thread (without virtual loss) it makes the same decisions as MCTSNode.
+public class ConcurrentMCTSNode<Data>
+{
+    public volatile ConcurrentMCTSNode<Data> parent;
+    public final Data data;
+
+    public volatile double score;
+    public volatile double lowerBound = Double.POSITIVE_INFINITY;
+    public volatile double upperBound = Double.NEGATIVE_INFINITY;
+    public volatile int visitCount;
+
+    // Iterations currently going through this node, each one counted as a visit with the lowest score seen
+    private final AtomicInteger virtualLosses;
+
+    private final AtomicReferenceArray<ConcurrentMCTSNode<Data>> children;
+    private final AtomicInteger claimedChildren;
+    private final AtomicInteger expandedChildren;
+
+    public ConcurrentMCTSNode(Data data, int maxChildren)
+    {
+        this.data = data;
+        this.children = new AtomicReferenceArray<>(maxChildren);
+        this.claimedChildren = new AtomicInteger();
+        this.expandedChildren = new AtomicInteger();
+        this.virtualLosses = new AtomicInteger();
+    }
+
+    // Reserves the index of the next child to expand, or returns -1 if all of them are already reserved
+    public int claimChild()
+    {
+        int index = claimedChildren.getAndIncrement();
+        return index < children.length() ? index : -1;
+    }
+
+    // Adds a child in an index returned by claimChild. With useVirtualLoss the child starts with the virtual loss of
+    // the iteration expanding it, as if it had been selected
+    public ConcurrentMCTSNode<Data> setChild(int index, Data childData, boolean useVirtualLoss)
+    {
+        return setChild(index, new ConcurrentMCTSNode<>(childData, children.length()), useVirtualLoss);
+    }
+
+    // Same as above with a node that is not part of any tree, e.g. one taken from a NodePool
+    public ConcurrentMCTSNode<Data> setChild(int index, ConcurrentMCTSNode<Data> newChild, boolean useVirtualLoss)
+    {
+        newChild.parent = this;
+        if (useVirtualLoss)
+            newChild.virtualLosses.incrementAndGet();
+        children.set(index, newChild);
+        expandedChildren.incrementAndGet();
+        return newChild;
+    }
+
+    // Child in the given index, null if it is not expanded yet
+    public ConcurrentMCTSNode<Data> getChild(int index) { return children.get(index); }
+    public int getMaxChildren() { return children.length(); }
+    public boolean isFullyExpanded() { return expandedChildren.get() == children.length(); }
+    public boolean isLeafNode() { return expandedChildren.get() == 0; }
+
+    // Returns null if no child can be evaluated yet (other threads are still backpropagating their first visits)
+    public ConcurrentMCTSNode<Data> selectUCT(double explorationRate, Random rng, boolean useVirtualLoss)
+    {
+        double highestUCT = Double.NEGATIVE_INFINITY;
+        ConcurrentMCTSNode<Data> bestChild = null;
+        double parentVisits = visitCount + virtualLosses.get();
+        double lower = lowerBound;
+        double upper = upperBound;
+        for (int i = 0; i < children.length(); i++)
+        {
+            ConcurrentMCTSNode<Data> child = children.get(i);
+            if (child == null)
+                continue;
+
+            int childVisits = child.visitCount;
+            double childScore = child.score;
+            int childLosses = child.virtualLosses.get();
+            if (childLosses > 0)
+            {
+                if (lower != Double.POSITIVE_INFINITY)
+                    childScore = (childScore * childVisits + lower * childLosses) / (childVisits + childLosses);
+                childVisits += childLosses;
+            }
+            if (childVisits == 0)
+            {
+                bestChild = child;
+                break;
+            }
+
+            double uct = (childScore - lower) / (upper - lower + 1);
+            uct += explorationRate * Math.sqrt(Math.log(parentVisits) / childVisits);
+            uct += rng.nextDouble() * 1e-8; // Resolve ties randomly
+
+            if (uct > highestUCT)
+            {
+                highestUCT = uct;
+                bestChild = child;
+            }
+        }
+
+        if (useVirtualLoss && bestChild != null)
+            bestChild.virtualLosses.incrementAndGet();
+        return bestChild;
+    }
+
+    // Adds the score to this node and its ancestors. removeVirtualLoss undoes the virtual losses of selectUCT, which
+    // start below the root of the search
+    public void backpropagate(double score, boolean removeVirtualLoss)
+    {
+        ConcurrentMCTSNode<Data> currNode = this;
+        while (currNode != null)
+        {
+            ConcurrentMCTSNode<Data> parent = currNode.parent;
+            synchronized (currNode)
+            {
+                int visits = currNode.visitCount + 1;
+                currNode.score += (score - currNode.score) / visits;
+                currNode.visitCount = visits;
+                currNode.lowerBound = Math.min(score, currNode.lowerBound);
+                currNode.upperBound = Math.max(score, currNode.upperBound);
+            }
+            if (removeVirtualLoss && parent != null)
+                currNode.virtualLosses.decrementAndGet();
+            currNode = parent;
+        }
+    }
+
+    public ConcurrentMCTSNode<Data> getChildWithHighestReturn(Random rng)
+    {
+        double bestScore = Double.NEGATIVE_INFINITY;
+        ConcurrentMCTSNode<Data> bestChild = null;
+        for (int i = 0; i < children.length(); i++)
+        {
+            ConcurrentMCTSNode<Data> child = children.get(i);
+            if (child == null)
+                continue;
+
+            double score = child.score + rng.nextDouble() * 1e-8; // Resolve ties randomly
+            if (score > bestScore)
+            {
+                bestScore = score;
+                bestChild = child;
+            }
+        }
+
+        return bestChild;
+    }
+
+    // Resets the statistics and removes the parent and children so the node can be reused, the data is kept.
+    // Not thread safe, no thread may be searching the tree the node belonged to
+    public void clear()
+    {
+        parent = null;
+        score = 0;
+        lowerBound = Double.POSITIVE_INFINITY;
+        upperBound = Double.NEGATIVE_INFINITY;
+        visitCount = 0;
+        virtualLosses.set(0);
+        for (int i = 0; i < children.length(); i++)
+            children.set(i, null);
+        claimedChildren.set(0);
+        expandedChildren.set(0);
+    }
+
+    public boolean isRootNode() { return parent == null; }
+}
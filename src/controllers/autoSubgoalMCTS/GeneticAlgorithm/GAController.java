@@ -2,19 +2,17 @@ package controllers.autoSubgoalMCTS.GeneticAlgorithm;
 
 import controllers.autoSubgoalMCTS.AbstractController;
 import controllers.autoSubgoalMCTS.BaseAction;
-import controllers.autoSubgoalMCTS.GeneticAlgorithm.Genome;
 import controllers.autoSubgoalMCTS.RewardAccumulator;
 import controllers.autoSubgoalMCTS.RewardGames.NaiveRewardGame;
 import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
 import framework.core.Controller;
 import framework.core.Game;
+import framework.core.GameState;
+import framework.core.ShipBatch;
 import framework.utils.Vector2d;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Random;
-import java.util.Vector;
 
 public class GAController extends AbstractController
 {
@@ -22,20 +20,36 @@ public class GAController extends AbstractController
     public static int PopulationSize = 50;
     public static double MutationRate = 1. / GenomeLength;
 
-    ArrayList<Genome<SearchData>> currPopulation;
-    ArrayList<Genome<SearchData>> nextPopulation;
+    Population currPopulation;
+    Population nextPopulation;
     RewardAccumulator rewardAccumulator;
+    GameState initialState;
+
+    // Simulates the whole population at once when the reward of the game is known (see evaluateGenomesBatch)
+    ShipBatch batch;
+    int[] batchActions;
+    int[] batchTickActions;
+    int[] batchWaypoints;
+    double[] batchMacroRewards;
+    RewardAccumulator[] batchAccumulators;
 
     public GAController(Game game, long dueTimeMs)
     {
-        currPopulation = new ArrayList<>(PopulationSize);
-        nextPopulation = new ArrayList<>(PopulationSize);
+        currPopulation = new Population(PopulationSize, GenomeLength);
+        nextPopulation = new Population(PopulationSize, GenomeLength);
         rewardAccumulator = new RewardAccumulator(0.99);
+        initialState = new GameState();
+        batch = new ShipBatch();
+        batchActions = new int[0];
+        batchTickActions = new int[0];
+        batchWaypoints = new int[0];
+        batchMacroRewards = new double[0];
+        batchAccumulators = new RewardAccumulator[0];
 
         for(int i = 0; i < PopulationSize; i++)
         {
-            currPopulation.add(new Genome(GenomeLength, rng, new SearchData(GenomeLength + 1)));
-            nextPopulation.add(new Genome(GenomeLength, rng, new SearchData(GenomeLength + 1)));
+            currPopulation.randomize(i, rng);
+            nextPopulation.randomize(i, rng);
         }
 
         // ToDo Do not hardcode NaiveRewardGame here
@@ -49,24 +63,25 @@ public class GAController extends AbstractController
         int eliteCount = (int)(currPopulation.size() * 0.2);
         if(eliteCount % 2 == 1)
             eliteCount -= 1; // Make sure it's a multiple of 2 to not mess up the crossover part
-        currPopulation.sort(Comparator.comparingDouble((g) -> -g.score));
+        currPopulation.sortByScore();
         for(int i = 0; i < eliteCount; i++)
         {
-            nextPopulation.get(i).copyOver(currPopulation.get(i));
+            nextPopulation.copyOver(i, currPopulation, i);
         }
 
         // Compute smallest value for normalizing negative fitness
         double minValue = Double.POSITIVE_INFINITY;
-        for(Genome g : currPopulation)
+        for(int i = 0; i < currPopulation.size(); i++)
         {
-            minValue = Math.min(minValue, g.score);
+            minValue = Math.min(minValue, currPopulation.getScore(i));
         }
 
         double scoreSum = 0;
-        for(Genome g : currPopulation)
+        for(int i = 0; i < currPopulation.size(); i++)
         {
-            g.score = (g.score - minValue) + 1; // Add +1 to make sure the smallest value also has a chance to be selected
-            scoreSum += g.score;
+            double score = (currPopulation.getScore(i) - minValue) + 1; // Add +1 to make sure the smallest value also has a chance to be selected
+            currPopulation.setScore(i, score);
+            scoreSum += score;
         }
 
         // Roulette Wheel Crossover
@@ -81,7 +96,7 @@ public class GAController extends AbstractController
             double sum = 0;
             for(int x = 0; x < currPopulation.size() && (p1Index == -1 || p2Index == -1); x++)
             {
-                sum += currPopulation.get(x).score / scoreSum;
+                sum += currPopulation.getScore(x) / scoreSum;
                 if (p1Index == -1 && p1Prob <= sum)
                 {
                     p1Index = x;
@@ -92,17 +107,15 @@ public class GAController extends AbstractController
                 }
             }
 
-            Genome p1 = nextPopulation.get(p1Index);
-            Genome p2 = nextPopulation.get(p2Index);
-            p1.copyOver(currPopulation.get(p1Index));
-            p2.copyOver(currPopulation.get(p2Index));
-            p1.crossover(p2, rng);
+            nextPopulation.copyOver(p1Index, currPopulation, p1Index);
+            nextPopulation.copyOver(p2Index, currPopulation, p2Index);
+            nextPopulation.crossover(p1Index, p2Index, rng);
         }
 
         // Mutation
         for(int i = eliteCount; i < nextPopulation.size(); i++)
         {
-            nextPopulation.get(i).mutate(MutationRate, rng);
+            nextPopulation.mutate(i, MutationRate, rng);
         }
 
         // Update scores
@@ -113,25 +126,21 @@ public class GAController extends AbstractController
     protected BaseAction getBestAction()
     {
         // Select a new action
-        Genome bestGenome = currPopulation.get(0);
+        int bestGenome = 0;
         for(int i = 1; i < currPopulation.size(); i++)
         {
-            if(bestGenome.score < currPopulation.get(i).score)
+            if(currPopulation.getScore(bestGenome) < currPopulation.getScore(i))
             {
-                bestGenome = currPopulation.get(i);
+                bestGenome = i;
             }
         }
-        BaseAction nextAction = new BaseAction(bestGenome.actions[0]);
+        BaseAction nextAction = new BaseAction(currPopulation.getAction(bestGenome, 0));
 
         // Update population
-        for(Genome g : currPopulation)
+        for(int i = 0; i < currPopulation.size(); i++)
         {
             // Remove the first action and sample a random one at the end
-            for(int i = 0; i < g.actions.length - 1; i++)
-            {
-                g.actions[i] = g.actions[i + 1];
-            }
-            g.actions[g.actions.length - 1] = rng.nextInt(NUM_ACTIONS);
+            currPopulation.shiftActions(i, rng.nextInt(NUM_ACTIONS));
         }
 
         return nextAction;
@@ -142,32 +151,123 @@ public class GAController extends AbstractController
     {
         for(int x = 0; x < currPopulation.size(); x++)
         {
-            Genome<SearchData> g = currPopulation.get(x);
-            for(int i = 0; i < g.data.trajectory.length - 1; i++)
+            for(int i = 0; i < currPopulation.getTrajectoryLength(x) - 1; i++)
             {
-                graphics.drawLine((int)g.data.trajectory[i].x, (int)g.data.trajectory[i].y, (int)g.data.trajectory[i + 1].x, (int)g.data.trajectory[i + 1].y);
+                graphics.drawLine((int)currPopulation.getTrajectoryX(x, i), (int)currPopulation.getTrajectoryY(x, i),
+                        (int)currPopulation.getTrajectoryX(x, i + 1), (int)currPopulation.getTrajectoryY(x, i + 1));
             }
         }
     }
 
-    private void evaluateGenomes(ArrayList<Genome<SearchData>> genomes, RewardGame game)
+    private void evaluateGenomes(Population genomes, RewardGame game)
     {
+        if(game.getClass() == NaiveRewardGame.class)
+        {
+            evaluateGenomesBatch(genomes, game);
+            return;
+        }
+
+        // All genomes start from the same state, restore it into a single copy instead of copying the game per genome
+        game.copyInto(initialState);
+        RewardGame copy = game.getCopy();
         for(int i = 0; i < genomes.size(); i++)
         {
-            Genome<SearchData> currGenome = genomes.get(i);
-            RewardGame copy = game.getCopy();
+            copy.restoreFrom(initialState, game.getRewardSum());
 
             rewardAccumulator.reset();
             BaseAction baseAction = new BaseAction(-1);
             int x = 0;
-            for(; x < currGenome.actions.length && !copy.isEnded(); x++)
+            for(; x < genomes.getGenomeLength() && !copy.isEnded(); x++)
             {
-                currGenome.data.trajectory[x] = copy.getState().getShip().s.copy();
-                baseAction.lowLevelAction = currGenome.actions[x];
+                Vector2d position = copy.getState().getShip().s;
+                genomes.setTrajectoryPoint(i, x, position.x, position.y);
+                baseAction.lowLevelAction = genomes.getAction(i, x);
                 rewardAccumulator.addReward(baseAction.apply(copy));
             }
-            currGenome.data.trajectory[x] = copy.getState().getShip().s.copy();
-            currGenome.score = rewardAccumulator.getRewardSum();
+            Vector2d position = copy.getState().getShip().s;
+            genomes.setTrajectoryPoint(i, x, position.x, position.y);
+            genomes.setScore(i, rewardAccumulator.getRewardSum());
+        }
+    }
+
+    // Same as evaluateGenomes, but advancing all the genomes together in a ShipBatch instead of a Game per genome.
+    // Only valid for NaiveRewardGame, whose reward only depends on the waypoints collected in each tick.
+    private void evaluateGenomesBatch(Population genomes, RewardGame game)
+    {
+        int numGenomes = genomes.size();
+        if(batchActions.length < numGenomes)
+        {
+            batchActions = new int[numGenomes];
+            batchTickActions = new int[numGenomes];
+            batchWaypoints = new int[numGenomes];
+            batchMacroRewards = new double[numGenomes];
+            batchAccumulators = new RewardAccumulator[numGenomes];
+            for(int i = 0; i < numGenomes; i++)
+                batchAccumulators[i] = new RewardAccumulator(rewardAccumulator.rewardDecay);
+        }
+
+        batch.reset(game.getState(), numGenomes);
+        for(int i = 0; i < numGenomes; i++)
+        {
+            batchAccumulators[i].reset();
+            batchWaypoints[i] = batch.getWaypointsVisited(i);
+            batchActions[i] = 0;
+        }
+
+        Random random = game.getRandom();
+        int repetitions = new BaseAction().repetitions;
+        int active = numGenomes;
+        int genomeLength = genomes.getGenomeLength();
+        for(int x = 0; x < genomeLength && active > 0; x++)
+        {
+            // A genome whose game has ended stops here, as in evaluateGenomes (negative actions are not simulated)
+            active = 0;
+            for(int i = 0; i < numGenomes; i++)
+            {
+                if(x > 0 && batchActions[i] < 0)
+                    continue;
+
+                genomes.setTrajectoryPoint(i, x, batch.getX(i), batch.getY(i));
+                batchActions[i] = batch.isEnded(i) ? -1 : genomes.getAction(i, x);
+                batchMacroRewards[i] = 0;
+                if(batchActions[i] >= 0)
+                    active++;
+            }
+
+            for(int r = 0; r < repetitions && active > 0; r++)
+            {
+                // Same draws as Game.tickRandom for each genome
+                for(int i = 0; i < numGenomes; i++)
+                {
+                    batchTickActions[i] = batchActions[i];
+                    if(batchActions[i] >= 0 && random.nextDouble() < Game.randomActionProbability)
+                        batchTickActions[i] = random.nextInt(NUM_ACTIONS);
+                }
+
+                batch.tick(batchTickActions);
+                game.addCalls(active);
+
+                for(int i = 0; i < numGenomes; i++)
+                {
+                    if(batchActions[i] >= 0)
+                    {
+                        int waypoints = batch.getWaypointsVisited(i);
+                        batchMacroRewards[i] += NaiveRewardGame.getReward(waypoints - batchWaypoints[i]);
+                        batchWaypoints[i] = waypoints;
+                    }
+                }
+            }
+
+            for(int i = 0; i < numGenomes; i++)
+                if(batchActions[i] >= 0)
+                    batchAccumulators[i].addReward(batchMacroRewards[i]);
+        }
+
+        for(int i = 0; i < numGenomes; i++)
+        {
+            if(batchActions[i] >= 0)
+                genomes.setTrajectoryPoint(i, genomeLength, batch.getX(i), batch.getY(i));
+            genomes.setScore(i, batchAccumulators[i].getRewardSum());
         }
     }
 }
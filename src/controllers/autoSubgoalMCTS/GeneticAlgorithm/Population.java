@@ -0,0 +1,119 @@
+package controllers.autoSubgoalMCTS.GeneticAlgorithm;
+
+import framework.core.Controller;
+
+import java.util.Random;
+
+// Population of fixed length genomes kept in primitive arrays instead of Genome objects: the actions of all the
+// genomes in one int[], their scores in one double[] and the trajectories followed when they were evaluated in one
+// double[] (x and y of each point). Sorting only reorders an array of genome indexes, so nothing is allocated once
+// the population is created.
+// All the methods take the position of a genome in the population, which is its index until the population is sorted.
+public class Population
+{
+    private final int size;
+    private final int genomeLength;
+    private final int[] actions;
+    private final double[] scores;
+    private final double[] trajectories;
+    private final int[] trajectoryLengths;
+    // Genome at each position of the population
+    private final int[] order;
+
+    public Population(int size, int genomeLength)
+    {
+        this.size = size;
+        this.genomeLength = genomeLength;
+        this.actions = new int[size * genomeLength];
+        this.scores = new double[size];
+        this.trajectories = new double[size * (genomeLength + 1) * 2];
+        this.trajectoryLengths = new int[size];
+        this.order = new int[size];
+        for(int i = 0; i < size; i++)
+            order[i] = i;
+    }
+
+    public int size() { return size; }
+    public int getGenomeLength() { return genomeLength; }
+
+    public double getScore(int position) { return scores[order[position]]; }
+    public void setScore(int position, double score) { scores[order[position]] = score; }
+
+    public int getAction(int position, int i) { return actions[order[position] * genomeLength + i]; }
+
+    public void randomize(int position, Random rng)
+    {
+        int offset = order[position] * genomeLength;
+        for(int i = 0; i < genomeLength; i++)
+            actions[offset + i] = rng.nextInt(Controller.NUM_ACTIONS);
+    }
+
+    // Swaps the actions of both genomes up to a random point, as Genome.crossover
+    public void crossover(int position, int otherPosition, Random rng)
+    {
+        int offset = order[position] * genomeLength;
+        int otherOffset = order[otherPosition] * genomeLength;
+        int crossoverPoint = rng.nextInt(genomeLength - 1);
+        for(int i = 0; i <= crossoverPoint; i++)
+        {
+            int tmp = actions[offset + i];
+            actions[offset + i] = actions[otherOffset + i];
+            actions[otherOffset + i] = tmp;
+        }
+    }
+
+    public void mutate(int position, double mutationRate, Random rng)
+    {
+        int offset = order[position] * genomeLength;
+        for(int i = 0; i < genomeLength; i++)
+        {
+            if(rng.nextDouble() <= mutationRate)
+                actions[offset + i] = rng.nextInt(Controller.NUM_ACTIONS);
+        }
+    }
+
+    // Copies the actions and the score of a genome of a population with the same genome length
+    public void copyOver(int position, Population reference, int referencePosition)
+    {
+        System.arraycopy(reference.actions, reference.order[referencePosition] * genomeLength,
+                actions, order[position] * genomeLength, genomeLength);
+        scores[order[position]] = reference.scores[reference.order[referencePosition]];
+    }
+
+    // Removes the first action of the genome and appends the given one at the end
+    public void shiftActions(int position, int lastAction)
+    {
+        int offset = order[position] * genomeLength;
+        System.arraycopy(actions, offset + 1, actions, offset, genomeLength - 1);
+        actions[offset + genomeLength - 1] = lastAction;
+    }
+
+    // Sorts the positions by descending score, genomes with the same score keep their relative order (the same order
+    // as a stable sort of the genomes). Insertion sort, since the order barely changes from one generation to the next
+    public void sortByScore()
+    {
+        for(int i = 1; i < size; i++)
+        {
+            int genome = order[i];
+            double score = scores[genome];
+            int j = i - 1;
+            for(; j >= 0 && Double.compare(-score, -scores[order[j]]) < 0; j--)
+                order[j + 1] = order[j];
+            order[j + 1] = genome;
+        }
+    }
+
+    // Sets the i-th point of the trajectory of the genome, the trajectory ends at the last point set
+    public void setTrajectoryPoint(int position, int i, double x, double y)
+    {
+        int genome = order[position];
+        int offset = (genome * (genomeLength + 1) + i) * 2;
+        trajectories[offset] = x;
+        trajectories[offset + 1] = y;
+        trajectoryLengths[genome] = i + 1;
+    }
+
+    public int getTrajectoryLength(int position) { return trajectoryLengths[order[position]]; }
+    public double getTrajectoryX(int position, int i) { return trajectories[(order[position] * (genomeLength + 1) + i) * 2]; }
+    public double getTrajectoryY(int position, int i) { return trajectories[(order[position] * (genomeLength + 1) + i) * 2 + 1]; }
+}
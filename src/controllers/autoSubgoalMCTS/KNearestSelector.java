@@ -0,0 +1,51 @@
+package controllers.autoSubgoalMCTS;
+
+// Keeps the k nearest of a sequence of items offered one by one with their distance, without sorting the whole
+// sequence or allocating. The nearest items are kept in ascending order of distance, items at the same distance in
+// the order they were offered (the same order a stable sort by distance gives).
+public class KNearestSelector
+{
+    private final int[] indexes;
+    private final double[] distances;
+    private int size;
+
+    public KNearestSelector(int k)
+    {
+        this.indexes = new int[k];
+        this.distances = new double[k];
+        this.size = 0;
+    }
+
+    public void clear() { size = 0; }
+
+    public void offer(int index, double distance)
+    {
+        int position = size;
+        while(position > 0 && distance < distances[position - 1])
+            position--;
+        if(position == indexes.length)
+            return;
+
+        int last = Math.min(size, indexes.length - 1);
+        System.arraycopy(indexes, position, indexes, position + 1, last - position);
+        System.arraycopy(distances, position, distances, position + 1, last - position);
+        indexes[position] = index;
+        distances[position] = distance;
+        size = last + 1;
+    }
+
+    // Number of items kept, at most k
+    public int size() { return size; }
+    // Index of the i-th nearest item as it was offered
+    public int getIndex(int i) { return indexes[i]; }
+    public double getDistance(int i) { return distances[i]; }
+
+    // Sum of the distances of the kept items, added from the nearest to the farthest
+    public double getDistanceSum()
+    {
+        double sum = 0;
+        for(int i = 0; i < size; i++)
+            sum += distances[i];
+        return sum;
+    }
+}
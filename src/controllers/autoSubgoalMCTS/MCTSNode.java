@@ -59,6 +59,26 @@ public class MCTSNode<Data>
         return newChild;
     }
 
+    // Adds a node that is not part of any tree, e.g. one taken from a NodePool
+    public MCTSNode<Data> addChild(MCTSNode<Data> newChild)
+    {
+        newChild.parent = this;
+        children.add(newChild);
+        return newChild;
+    }
+
+    // Resets the statistics and removes the parent and children so the node can be reused, the data is kept
+    public void clear()
+    {
+        parent = null;
+        children.clear();
+        fullyExplored = false;
+        score = 0;
+        lowerBound = Double.POSITIVE_INFINITY;
+        upperBound = Double.NEGATIVE_INFINITY;
+        visitCount = 0;
+    }
+
     public MCTSNode<Data> detachChild(int index)
     {
         MCTSNode<Data> child = children.remove(index);
@@ -0,0 +1,203 @@
+package controllers.autoSubgoalMCTS;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Alternative to MCTSNode that stores a whole tree in parallel primitive arrays. Nodes are int indexes, the root is
+// always 0, and the children of a node are linked through firstChild/nextSibling in the order they were added.
+// A tree is cleared with reset() and its arrays reused, so a search can build many trees without creating objects.
+// Data of the nodes can be kept by the user in its own arrays indexed by node (see getCapacity()).
+// The statistics and the selection are the same as in MCTSNode.
+public class MCTSTree
+{
+    public interface INodeVisitor
+    {
+        void visit(int node);
+    }
+
+    public static final int NONE = -1;
+    public static final int ROOT = 0;
+
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int[] childCount;
+    private int[] visitCount;
+    private double[] score;
+    private double[] lowerBound;
+    private double[] upperBound;
+    private boolean[] fullyExplored;
+    private int size;
+
+    public MCTSTree(int initialCapacity)
+    {
+        allocate(Math.max(1, initialCapacity));
+        reset();
+    }
+
+    // Removes all the nodes but a new root
+    public void reset()
+    {
+        size = 0;
+        addNode(NONE);
+    }
+
+    public int addChild(int node)
+    {
+        int child = addNode(node);
+        if(firstChild[node] == NONE)
+            firstChild[node] = child;
+        else
+            nextSibling[lastChild[node]] = child;
+        lastChild[node] = child;
+        childCount[node]++;
+        return child;
+    }
+
+    public int selectUCT(int node, double explorationRate, Random rng)
+    {
+        double highestUCT = Double.NEGATIVE_INFINITY;
+        int bestChild = NONE;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child])
+        {
+            if (fullyExplored[child])
+                continue;
+            if (visitCount[child] == 0)
+                return child;
+
+            double uct = (score[child] - lowerBound[node]) / (upperBound[node] - lowerBound[node] + 1);
+            uct += explorationRate * Math.sqrt(Math.log(visitCount[node]) / visitCount[child]);
+            uct += rng.nextDouble() * 1e-8; // Resolve ties randomly
+
+            if (uct > highestUCT)
+            {
+                highestUCT = uct;
+                bestChild = child;
+            }
+        }
+
+        return bestChild;
+    }
+
+    public void backpropagate(int node, double value)
+    {
+        for (int currNode = node; currNode != NONE; currNode = parent[currNode])
+            update(currNode, value);
+    }
+
+    public void backpropagate(int node, double value, INodeVisitor visitor)
+    {
+        for (int currNode = node; currNode != NONE; currNode = parent[currNode])
+        {
+            update(currNode, value);
+            visitor.visit(currNode);
+        }
+    }
+
+    public void setFullyExplored(int node)
+    {
+        fullyExplored[node] = true;
+
+        whileLoop: for (int currNode = parent[node]; currNode != NONE; currNode = parent[currNode])
+        {
+            for (int child = firstChild[currNode]; child != NONE; child = nextSibling[child])
+            {
+                if (!fullyExplored[child])
+                {
+                    break whileLoop;
+                }
+            }
+
+            fullyExplored[currNode] = true;
+        }
+    }
+
+    public int getChildWithHighestReturn(int node, Random rng)
+    {
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int bestChild = NONE;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child])
+        {
+            double childScore = score[child] + rng.nextDouble() * 1e-8; // Resolve ties randomly
+            if (childScore > bestScore)
+            {
+                bestScore = childScore;
+                bestChild = child;
+            }
+        }
+
+        return bestChild;
+    }
+
+    public int getParent(int node) { return parent[node]; }
+    public int getFirstChild(int node) { return firstChild[node]; }
+    public int getNextSibling(int node) { return nextSibling[node]; }
+    public int getChildCount(int node) { return childCount[node]; }
+    public int getVisitCount(int node) { return visitCount[node]; }
+    public double getScore(int node) { return score[node]; }
+    public double getLowerBound(int node) { return lowerBound[node]; }
+    public double getUpperBound(int node) { return upperBound[node]; }
+    public boolean isFullyExplored(int node) { return fullyExplored[node]; }
+    public boolean isLeafNode(int node) { return childCount[node] == 0; }
+    public boolean isRootNode(int node) { return parent[node] == NONE; }
+    public int size() { return size; }
+    // Nodes that fit in the arrays of the tree, all indexes are below it
+    public int getCapacity() { return parent.length; }
+
+    private void update(int node, double value)
+    {
+        ++visitCount[node];
+        score[node] += (value - score[node]) / visitCount[node];
+        lowerBound[node] = Math.min(value, lowerBound[node]);
+        upperBound[node] = Math.max(value, upperBound[node]);
+    }
+
+    private int addNode(int parentNode)
+    {
+        if(size == parent.length)
+            grow();
+
+        int node = size++;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        nextSibling[node] = NONE;
+        childCount[node] = 0;
+        visitCount[node] = 0;
+        score[node] = 0;
+        lowerBound[node] = Double.POSITIVE_INFINITY;
+        upperBound[node] = Double.NEGATIVE_INFINITY;
+        fullyExplored[node] = false;
+        return node;
+    }
+
+    private void allocate(int capacity)
+    {
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        lastChild = new int[capacity];
+        nextSibling = new int[capacity];
+        childCount = new int[capacity];
+        visitCount = new int[capacity];
+        score = new double[capacity];
+        lowerBound = new double[capacity];
+        upperBound = new double[capacity];
+        fullyExplored = new boolean[capacity];
+    }
+
+    private void grow()
+    {
+        int capacity = 2 * parent.length;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+        visitCount = Arrays.copyOf(visitCount, capacity);
+        score = Arrays.copyOf(score, capacity);
+        lowerBound = Arrays.copyOf(lowerBound, capacity);
+        upperBound = Arrays.copyOf(upperBound, capacity);
+        fullyExplored = Arrays.copyOf(fullyExplored, capacity);
+    }
+}
@@ -25,5 +25,23 @@ public class MacroAction
 
     public int size() {return actions.size();}
 
+    // Copies the macro actions and their actions, e.g. to keep a result that the tree will modify as it executes it
+    public static ArrayList<MacroAction> copyAll(ArrayList<MacroAction> macroActions)
+    {
+        ArrayList<MacroAction> copies = new ArrayList<>(macroActions.size());
+        for(MacroAction macroAction : macroActions)
+        {
+            MacroAction copy = new MacroAction();
+            for(BaseAction action : macroAction.actions)
+            {
+                BaseAction actionCopy = new BaseAction(action.lowLevelAction);
+                actionCopy.repetitions = action.repetitions;
+                copy.actions.add(actionCopy);
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
     public ArrayList<BaseAction> actions;
 }
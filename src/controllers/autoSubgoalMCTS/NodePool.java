@@ -0,0 +1,52 @@
+package controllers.autoSubgoalMCTS;
+
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+// Free list of tree nodes (with their data) that are no longer part of a tree, so the subtrees pruned when the root
+// moves on can be reused in the next searches instead of becoming garbage. The user clears a node before reusing it.
+// Keeps counters of how many nodes were taken from the pool and of the highest number of nodes in use at once.
+// The methods are synchronized so several threads expanding the same tree can share a pool.
+public class NodePool<Node>
+{
+    private final ArrayList<Node> freeNodes;
+    private final Supplier<Node> factory;
+
+    private long requests;
+    private long hits;
+    private int liveNodes;
+    private int peakLiveNodes;
+
+    public NodePool(Supplier<Node> factory)
+    {
+        this.freeNodes = new ArrayList<>();
+        this.factory = factory;
+    }
+
+    // Returns a released node if there is any, otherwise a new one from the factory
+    public synchronized Node acquire()
+    {
+        requests++;
+        liveNodes++;
+        peakLiveNodes = Math.max(peakLiveNodes, liveNodes);
+        if(freeNodes.isEmpty())
+            return factory.get();
+
+        hits++;
+        return freeNodes.remove(freeNodes.size() - 1);
+    }
+
+    public synchronized void release(Node node)
+    {
+        liveNodes--;
+        freeNodes.add(node);
+    }
+
+    public synchronized long getRequests() { return requests; }
+    public synchronized long getHits() { return hits; }
+    // Fraction of the acquired nodes that were reused
+    public synchronized double getHitRate() { return requests == 0 ? 0 : (double)hits / requests; }
+    public synchronized int getLiveNodes() { return liveNodes; }
+    public synchronized int getPeakLiveNodes() { return peakLiveNodes; }
+    public synchronized int getFreeNodes() { return freeNodes.size(); }
+}
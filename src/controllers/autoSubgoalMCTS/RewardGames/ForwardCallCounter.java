@@ -0,0 +1,18 @@
+package controllers.autoSubgoalMCTS.RewardGames;
+
+// Counts the ticks (forward model calls) of one search context: a RewardGame and all the copies made from it share
+// the same counter, so independent searches (e.g. several controllers or trials in one JVM) do not interfere.
+// It is not synchronized, parallel searches should use one counter each and add them up.
+public class ForwardCallCounter
+{
+    private int calls;
+
+    public ForwardCallCounter()
+    {
+        calls = 0;
+    }
+
+    public void add(int ticks) { calls += ticks; }
+    public int get() { return calls; }
+    public void reset() { calls = 0; }
+}
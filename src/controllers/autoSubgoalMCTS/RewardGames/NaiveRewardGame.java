@@ -2,6 +2,8 @@ package controllers.autoSubgoalMCTS.RewardGames;
 
 import framework.core.Game;
 
+import java.util.Random;
+
 public class NaiveRewardGame extends RewardGame
 {
     public NaiveRewardGame(Game initialState)
@@ -9,6 +11,11 @@ public class NaiveRewardGame extends RewardGame
         super(initialState);
     }
 
+    public NaiveRewardGame(Game initialState, ForwardCallCounter callCounter)
+    {
+        super(initialState, callCounter);
+    }
+
     private NaiveRewardGame()
     {
         super();
@@ -24,10 +31,35 @@ public class NaiveRewardGame extends RewardGame
     protected void tickInternal(Game state, int action)
     {
         int waypointsBefore = state.getWaypointsVisited();
-        state.tickRandom(action);
+        state.tickRandom(action, getRandom());
         int deltaWaypoints = state.getWaypointsVisited() - waypointsBefore;
 
-        addReward(deltaWaypoints > 0 ? (10 * deltaWaypoints) : -1);
+        addReward(getReward(deltaWaypoints));
+    }
+
+    // Runs all the ticks directly on the game, computing the waypoints collected once per tick
+    @Override
+    public double tickRepeated(int action, int repetitions)
+    {
+        Game state = getState();
+        Random random = getRandom();
+        int waypoints = state.getWaypointsVisited();
+        double reward = 0;
+        for(int i = 0; i < repetitions; i++)
+        {
+            state.tickRandom(action, random);
+            int waypointsAfter = state.getWaypointsVisited();
+            reward += getReward(waypointsAfter - waypoints);
+            waypoints = waypointsAfter;
+        }
+        addTicks(repetitions, reward);
+        return reward;
+    }
+
+    // Reward of one tick given the number of waypoints collected in it, also used when simulating without a Game
+    public static double getReward(int deltaWaypoints)
+    {
+        return deltaWaypoints > 0 ? (10 * deltaWaypoints) : -1;
     }
 
     @Override
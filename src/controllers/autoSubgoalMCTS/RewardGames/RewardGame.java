@@ -1,31 +1,55 @@
 package controllers.autoSubgoalMCTS.RewardGames;
 
+import controllers.autoSubgoalMCTS.AbstractController;
 import framework.core.Game;
+import framework.core.GameState;
+
+import java.util.Random;
 
 public abstract class RewardGame
 {
     public RewardGame(Game initialState)
+    {
+        this(initialState, new ForwardCallCounter());
+    }
+
+    // The ticks of this game and all its copies are added to the given counter
+    public RewardGame(Game initialState, ForwardCallCounter callCounter)
     {
         this();
         currentState = initialState;
+        this.callCounter = callCounter;
     }
 
     protected RewardGame()
     {
         currentTickRewardSum = 0;
         rewardSum = 0;
+        random = AbstractController.rng;
     }
 
     // Returns the reward for each action, useful for computing a decaying reward sum
     public double tick(int action)
     {
-        callCounter++;
+        callCounter.add(1);
         currentTickRewardSum = 0;
         tickInternal(currentState, action);
         rewardSum += currentTickRewardSum;
         return currentTickRewardSum;
     }
 
+    // Same as calling tick() the given number of times, returns the sum of the rewards of all the ticks.
+    // Subclasses can override it to run the ticks without the overhead of tick(), see addTicks()
+    public double tickRepeated(int action, int repetitions)
+    {
+        double sumBefore = rewardSum;
+        for(int i = 0; i < repetitions; i++)
+        {
+            tick(action);
+        }
+        return rewardSum - sumBefore;
+    }
+
     // Evaluates how good the current state is
     // This function serves to support returning only one value at the end of a trajectory.
     // In contrast to tick() which returns a bunch of rewards
@@ -35,16 +59,46 @@ public abstract class RewardGame
     {
         RewardGame copy = copyInternal();
         copy.rewardSum = rewardSum;
-        copy.currentState = currentState.getCopy();
+        copy.callCounter = callCounter;
+        copy.random = random;
+        copy.currentState = currentState.getSimulationCopy();
+        return copy;
+    }
+
+    // Copy with its own forward model counter and random numbers, e.g. to simulate on another thread
+    public RewardGame getCopy(ForwardCallCounter callCounter, Random random)
+    {
+        RewardGame copy = getCopy();
+        copy.callCounter = callCounter;
+        copy.random = random;
         return copy;
     }
 
+    // Writes the current state into a snapshot, which can be restored later without creating new objects
+    public void copyInto(GameState snapshot)
+    {
+        currentState.copyInto(snapshot);
+    }
+
+    // Resets this game to a snapshot taken from a game on the same map, e.g. from the game this one was copied from
+    public void restoreFrom(GameState snapshot, double rewardSum)
+    {
+        currentState.restoreFrom(snapshot);
+        this.rewardSum = rewardSum;
+        currentTickRewardSum = 0;
+    }
+
     public boolean isEnded() {return currentState.isEnded();}
     public double getRewardSum() { return rewardSum; }
     public Game getState() { return currentState; }
     public void setState(Game newState) { currentState = newState; }
-    public static int getCalls() {return callCounter;}
-    public static void resetCalls() {callCounter = 0;}
+    // Generator of the random actions of the game (see Game.tickRandom), shared with the copies
+    public Random getRandom() { return random; }
+    public void setRandom(Random random) { this.random = random; }
+    public int getCalls() {return callCounter.get();}
+    public ForwardCallCounter getCallCounter() {return callCounter;}
+    // Counts ticks simulated outside of tick(), e.g. with a ShipBatch
+    public void addCalls(int calls) {callCounter.add(calls);}
 
     protected abstract void tickInternal(Game state, int action);
     protected abstract RewardGame copyInternal();
@@ -54,8 +108,16 @@ public abstract class RewardGame
         currentTickRewardSum += reward;
     }
 
+    // Accounts for ticks run directly on the state by an override of tickRepeated(), with the sum of their rewards
+    protected void addTicks(int ticks, double reward)
+    {
+        callCounter.add(ticks);
+        rewardSum += reward;
+    }
+
     private Game currentState;
     private double rewardSum;
     private double currentTickRewardSum;
-    private static int callCounter;
+    private ForwardCallCounter callCounter;
+    private Random random;
 }
@@ -0,0 +1,47 @@
+package controllers.autoSubgoalMCTS;
+
+import framework.core.Game;
+import framework.core.Ship;
+
+import java.util.Arrays;
+
+// Hashable key of a quantised game state: cell of the position of the ship, bucket of its velocity, its heading index
+// and the waypoints collected. States with the same key are treated as the same state by the caches of the searches.
+public class StateKey
+{
+    private final long ship;
+    private final long[] collected;
+    private final int hash;
+
+    public StateKey(Game game, double cellSize, double velocityStep)
+    {
+        Ship s = game.getShip();
+        // 16 bits per coordinate cell, 12 bits per velocity bucket and 7 bits for the heading
+        long x = (long) Math.floor(s.s.x / cellSize) & 0xFFFF;
+        long y = (long) Math.floor(s.s.y / cellSize) & 0xFFFF;
+        long vx = (long) Math.floor(s.v.x / velocityStep) & 0xFFF;
+        long vy = (long) Math.floor(s.v.y / velocityStep) & 0xFFF;
+        long heading = s.getHeading() & 0x7F;
+        this.ship = x | (y << 16) | (vx << 32) | (vy << 44) | (heading << 56);
+
+        this.collected = new long[(game.getNumWaypoints() + 63) >>> 6];
+        for(int i = 0; i < game.getNumWaypoints(); i++)
+        {
+            if(game.isWaypointCollected(i))
+                collected[i >>> 6] |= 1L << i;
+        }
+        this.hash = 31 * Long.hashCode(ship) + Arrays.hashCode(collected);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(!(o instanceof StateKey))
+            return false;
+        StateKey other = (StateKey) o;
+        return ship == other.ship && Arrays.equals(collected, other.collected);
+    }
+
+    @Override
+    public int hashCode() { return hash; }
+}
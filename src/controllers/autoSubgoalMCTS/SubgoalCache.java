@@ -0,0 +1,64 @@
+package controllers.autoSubgoalMCTS;
+
+import framework.core.Game;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Least recently used cache of the macro actions found by subgoal searches, keyed by the quantised state (see
+// StateKey) the search started from. A node reaching a cached state can expand without searching again.
+public class SubgoalCache
+{
+    private final LinkedHashMap<StateKey, ArrayList<MacroAction>> entries;
+    private final double cellSize;
+    private final double velocityStep;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SubgoalCache(int capacity, double cellSize, double velocityStep)
+    {
+        this.cellSize = cellSize;
+        this.velocityStep = velocityStep;
+        this.entries = new LinkedHashMap<StateKey, ArrayList<MacroAction>>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StateKey, ArrayList<MacroAction>> eldest)
+            {
+                if(size() <= capacity)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // Copy of the macro actions found from the state of the game, null if there are none
+    public ArrayList<MacroAction> get(Game game)
+    {
+        ArrayList<MacroAction> macroActions = entries.get(new StateKey(game, cellSize, velocityStep));
+        if(macroActions == null)
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return MacroAction.copyAll(macroActions);
+    }
+
+    // Stores a copy of the macro actions found from the state of the game
+    public void put(Game game, ArrayList<MacroAction> macroActions)
+    {
+        entries.put(new StateKey(game, cellSize, velocityStep), MacroAction.copyAll(macroActions));
+    }
+
+    public void clear() { entries.clear(); }
+
+    public int size() { return entries.size(); }
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public long getEvictions() { return evictions; }
+}
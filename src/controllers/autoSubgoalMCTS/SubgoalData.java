@@ -12,6 +12,18 @@ public class SubgoalData
         macroAction = new MacroAction();
     }
 
+    // Resets the data so the node holding it can be reused, the latent state array is kept
+    public void clear()
+    {
+        lastSeenPosition = null;
+        noveltyScore = 0;
+        noveltyLowerBound = 0;
+        noveltyUpperBound = 0;
+        macroAction = new MacroAction();
+        subgoalSearch = null;
+        transposition = null;
+    }
+
     public Vector2d lastSeenPosition;
     public double[] latentState;
     public double noveltyScore;
@@ -19,4 +31,6 @@ public class SubgoalData
     public double noveltyUpperBound;
     public MacroAction macroAction;
     public ISubgoalSearch subgoalSearch;
+    // Entry of the state where the subgoal search started, if the tree uses a transposition table
+    public TranspositionTable.Entry transposition;
 };
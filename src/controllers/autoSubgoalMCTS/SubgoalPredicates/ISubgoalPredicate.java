@@ -8,5 +8,10 @@ public interface ISubgoalPredicate
     boolean isSubgoal(Game state);
     boolean isSameSubgoal(Game state1, Game state2);
     boolean isSameState(Game state1, Game state2);
+    // Same as isSameState for a state and the position of the ship in another state
+    boolean isSameState(Game state, double x, double y);
+    // Hashable key of the subgoal of a state that is not ended: two such states are the same subgoal if and only if
+    // their keys are equal. An ended state is only the same subgoal as another ended state in the same state
+    long getSubgoalKey(Game state);
     void render(Graphics2D graphics, Game state);
 }
@@ -34,6 +34,21 @@ public class PositionGridPredicate implements ISubgoalPredicate
         return state1.getShip().s.sqDist(state2.getShip().s) <= epsilonSqrd;
     }
 
+    @Override
+    public boolean isSameState(Game state, double x, double y)
+    {
+        double dx = state.getShip().s.x - x;
+        double dy = state.getShip().s.y - y;
+        return dx * dx + dy * dy <= epsilonSqrd;
+    }
+
+    @Override
+    public long getSubgoalKey(Game state)
+    {
+        Vector2i cell = getCell(state.getShip().s);
+        return (cell.x << 32) ^ (cell.y & 0xFFFFFFFFL);
+    }
+
     @Override
     public boolean isSameSubgoal(Game state1, Game state2)
     {
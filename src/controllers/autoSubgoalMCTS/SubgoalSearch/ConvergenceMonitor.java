@@ -0,0 +1,95 @@
+package controllers.autoSubgoalMCTS.SubgoalSearch;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+// Convergence signal of a subgoal search: the search reports after every step whether it found something new (e.g.
+// a latent cell it never reached before, see addCell) and the search is considered converged once it went window
+// steps without finding anything new, as long as it found something at all.
+public class ConvergenceMonitor
+{
+    // Coordinates of a cell, compared in full so different cells never count as the same one
+    private static class Cell
+    {
+        long[] coordinates;
+        int hash;
+
+        void set(double[] latentState, double cellSize)
+        {
+            if(coordinates == null || coordinates.length != latentState.length)
+                coordinates = new long[latentState.length];
+            for(int i = 0; i < latentState.length; i++)
+                coordinates[i] = (long) Math.floor(latentState[i] / cellSize);
+            hash = Arrays.hashCode(coordinates);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Cell && Arrays.equals(coordinates, ((Cell) o).coordinates);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+    }
+
+    private final int window;
+    private final double cellSize;
+    private final HashSet<Cell> cells;
+    // Cell being looked up, only copied into the set if it is new
+    private Cell probe;
+    private int found;
+    private int stepsWithoutNews;
+
+    public ConvergenceMonitor(int window, double cellSize)
+    {
+        this.window = window;
+        this.cellSize = cellSize;
+        this.cells = new HashSet<>();
+    }
+
+    // For searches that do not use latent cells
+    public ConvergenceMonitor(int window)
+    {
+        this(window, 1);
+    }
+
+    public void reset()
+    {
+        cells.clear();
+        found = 0;
+        stepsWithoutNews = 0;
+    }
+
+    // Registers the cell of size cellSize containing the latent state, returns true if it is new
+    public boolean addCell(double[] latentState)
+    {
+        if(probe == null)
+            probe = new Cell();
+        probe.set(latentState, cellSize);
+        if(cells.contains(probe))
+            return false;
+
+        cells.add(probe);
+        probe = null;
+        return true;
+    }
+
+    public void endStep(boolean foundNew)
+    {
+        if(foundNew)
+        {
+            found++;
+            stepsWithoutNews = 0;
+        }
+        else
+        {
+            stepsWithoutNews++;
+        }
+    }
+
+    public boolean hasConverged()
+    {
+        return found > 0 && stepsWithoutNews >= window;
+    }
+}
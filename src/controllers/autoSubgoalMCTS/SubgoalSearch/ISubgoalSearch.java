@@ -8,6 +8,7 @@ import framework.core.Game;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Random;
 
 public interface ISubgoalSearch
 {
@@ -15,6 +16,18 @@ public interface ISubgoalSearch
     // Returns the length of the executed macro action
     int step(RewardGame state);
     boolean isDone();
+    // Convergence signal, true once more steps are unlikely to change the macro actions found. Unlike isDone the
+    // search can go on, it is up to the caller to stop earlier
+    boolean hasConverged();
     ArrayList<MacroAction> getMacroActions();
     ISubgoalSearch createNewSearch(MCTSNode<SubgoalData> parentNode);
+    // Starts again as a search just created with createNewSearch(parentNode), so the search can be reused by another
+    // node. Macro actions returned before are not modified
+    void reset(MCTSNode<SubgoalData> parentNode);
+    // True if the macro actions found depend on parentNode and not only on the states searched from, such a search
+    // can not be shared by other nodes reaching the same state
+    boolean dependsOnParentNode();
+    // Returns a search with the same settings that draws its random numbers from rng, e.g. to be used as the
+    // prototype of the searches of a tree built on another thread
+    ISubgoalSearch copyWithRandom(Random rng);
 }
@@ -3,6 +3,7 @@ package controllers.autoSubgoalMCTS.SubgoalSearch.MCTSNoveltySearch;
 import controllers.autoSubgoalMCTS.*;
 import controllers.autoSubgoalMCTS.BehaviourFunctions.IBehaviourFunction;
 import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
+import controllers.autoSubgoalMCTS.SubgoalSearch.ConvergenceMonitor;
 import controllers.autoSubgoalMCTS.SubgoalSearch.ISubgoalSearch;
 import framework.core.Controller;
 
@@ -24,6 +25,7 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
         this.rewardAccumulator = new RewardAccumulator(0.99);
         this.latentCache = new double[behaviourFunction.getLatentSize()];
         this.rootCache = new double[behaviourFunction.getLatentSize()];
+        this.convergence = new ConvergenceMonitor(MCTSNoveltySearch.convergenceWindow, MCTSNoveltySearch.convergenceCellSize);
     }
 
     public ISubgoalSearch createNewSearch(MCTSNode<SubgoalData> parentNode)
@@ -33,6 +35,22 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
         return newSearch;
     }
 
+    @Override
+    public void reset(MCTSNode<SubgoalData> parentNode)
+    {
+        this.parentNode = parentNode;
+        this.root = new MCTSNode<>(new SearchData());
+        noveltyAccumulator.reset();
+        rewardAccumulator.reset();
+        convergence.reset();
+    }
+
+    @Override
+    public ISubgoalSearch copyWithRandom(Random rng)
+    {
+        return new HistoryMCTSNoveltySearch(trajectoryLength, behaviourFunction, rng);
+    }
+
     @Override
     public int step(RewardGame game)
     {
@@ -49,6 +67,7 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
         }
 
         // Expansion
+        boolean newCell = false;
         if(depth < trajectoryLength)
         {
             BaseAction nextAction = new BaseAction(currNode.children.size());
@@ -60,7 +79,9 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
             macroData.latentState = new double[behaviourFunction.getLatentSize()];
             behaviourFunction.toLatent(game.getState(), macroData.latentState);
             currNode = currNode.addChild(macroData);
+            newCell = convergence.addCell(macroData.latentState);
         }
+        convergence.endStep(newCell);
 
         // Backpropagation
         currNode.backpropagate(noveltyAccumulator.getRewardSum(), (MCTSNode<SearchData> n) ->
@@ -81,6 +102,19 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
         return root.visitCount >= 400;
     }
 
+    @Override
+    public boolean hasConverged()
+    {
+        return convergence.hasConverged();
+    }
+
+    @Override
+    public boolean dependsOnParentNode()
+    {
+        // The archive of getMacroActions starts with the subgoals on the way to parentNode
+        return true;
+    }
+
     @Override
     public ArrayList<MacroAction> getMacroActions()
     {
@@ -126,31 +160,57 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
         double[] rewardCache = new double[subgoalCandidates.size()];
         double minNovelty = Double.POSITIVE_INFINITY;
         double maxNovelty = Double.NEGATIVE_INFINITY;
+        // Subgoals in the archive before the first round, the rest are added one per round
+        int historySize = archive.size();
+        if(archiveDistances.length < historySize + subgoalCount)
+            archiveDistances = new double[historySize + subgoalCount];
         while(selectedNodes.size() < subgoalCount)
         {
+            int round = archive.size() - historySize;
             // Compute the novelty & reward for each candidate
             for(int i = 0; i < subgoalCandidates.size(); i++)
             {
                 MCTSNode<SearchData> candidate = subgoalCandidates.get(i);
 
                 // Find the n-closest neighbors from all selected subgoals
-                int n = archive.size() > 3 ? 3 : archive.size();
-                Collections.sort(archive, (Subgoal v1, Subgoal v2) ->
+                nearestSubgoals.clear();
+                for(int x = 0; x < archive.size(); x++)
                 {
-                    double v1Dist = latentDist(v1.latentState, candidate.data.latentState);
-                    double v2Dist = latentDist(v2.latentState, candidate.data.latentState);
-                    return v1Dist > v2Dist ? 1 : v1Dist < v2Dist ? -1 : 0;
-                });
+                    archiveDistances[x] = latentDist(archive.get(x).latentState, candidate.data.latentState);
+                    nearestSubgoals.offer(x, archiveDistances[x]);
+                }
 
                 // Compute novelty & rewards scores
-                noveltyCache[i] = 0;
+                noveltyCache[i] = nearestSubgoals.getDistanceSum();
                 rewardCache[i] = 3;
-                for(int x = 0; x < n; x++)
+                if(hasNeighbourTie(archive.size()))
                 {
-                    noveltyCache[i] += latentDist(candidate.data.latentState, archive.get(x).latentState);
-                    if(archive.get(x).reward >= candidate.data.reward)
+                    // Which of the subgoals at the same distance are kept depends on the order of the archive
+                    ArrayList<Integer> order = new ArrayList<>();
+                    for(int x = 0; x < archive.size(); x++)
+                        order.add(x);
+                    int candidateIndex = i;
+                    order.sort((v1, v2) ->
+                    {
+                        int result = Double.compare(archiveDistances[v1], archiveDistances[v2]);
+                        return result != 0 ? result : compareArchiveOrder(archive, subgoalCandidates, historySize, v1, v2, round, candidateIndex);
+                    });
+                    for(int x = 0; x < nearestSubgoals.size(); x++)
                     {
-                        rewardCache[i]--;
+                        if(archive.get(order.get(x)).reward >= candidate.data.reward)
+                        {
+                            rewardCache[i]--;
+                        }
+                    }
+                }
+                else
+                {
+                    for(int x = 0; x < nearestSubgoals.size(); x++)
+                    {
+                        if(archive.get(nearestSubgoals.getIndex(x)).reward >= candidate.data.reward)
+                        {
+                            rewardCache[i]--;
+                        }
                     }
                 }
                 minNovelty = Math.min(minNovelty, noveltyCache[i]);
@@ -199,6 +259,47 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
         return macroActions;
     }
 
+    // True if a subgoal of the archive not among the nearest ones is as close as the farthest of them, the nearest
+    // ones are not well defined by their distance alone then (archiveDistances holds the distances of the archive)
+    private boolean hasNeighbourTie(int archiveSize)
+    {
+        if(archiveSize <= nearestSubgoals.size())
+            return false;
+
+        double farthest = nearestSubgoals.getDistance(nearestSubgoals.size() - 1);
+        int count = 0;
+        for(int x = 0; x < archiveSize; x++)
+        {
+            if(archiveDistances[x] <= farthest)
+                count++;
+        }
+        return count > nearestSubgoals.size();
+    }
+
+    // Compares the positions of the subgoals s and t of the archive (by index) in the archive as it is stably sorted
+    // in place by the distance to each candidate in turn, with each new subgoal appended at the end of a round. The
+    // subgoals before historySize are there from round 0, the one at index k >= historySize from round
+    // k - historySize + 1. Before candidate i of round round, the archive is sorted by the distance to candidate i - 1,
+    // ties by the distance to candidate i - 2 and so on back to the round in which the later of the two was added, and
+    // the one added first goes first if they tie on all of them
+    private int compareArchiveOrder(ArrayList<Subgoal> archive, ArrayList<MCTSNode<SearchData>> subgoalCandidates,
+                                    int historySize, int s, int t, int round, int i)
+    {
+        int addedRound = Math.max(0, Math.max(s, t) - historySize + 1);
+        // Candidates of the previous rounds come after candidate i - 1 of this one, and repeat the same distances
+        int candidates = addedRound < round ? subgoalCandidates.size() : i;
+        for(int x = 1; x <= candidates; x++)
+        {
+            int j = Math.floorMod(i - x, subgoalCandidates.size());
+            double[] candidateLatent = subgoalCandidates.get(j).data.latentState;
+            int result = Double.compare(latentDist(archive.get(s).latentState, candidateLatent),
+                    latentDist(archive.get(t).latentState, candidateLatent));
+            if(result != 0)
+                return result;
+        }
+        return Integer.compare(s, t);
+    }
+
     private void selectSubgoalCandidates(MCTSNode<SearchData> node, int count, ArrayList<MCTSNode<SearchData>> bucket)
     {
         if(count == 0)
@@ -244,5 +345,9 @@ public class HistoryMCTSNoveltySearch implements ISubgoalSearch
     public IBehaviourFunction behaviourFunction;
     private double[] latentCache;
     private double[] rootCache;
+    private KNearestSelector nearestSubgoals = new KNearestSelector(3);
+    // Distances from the candidate being scored to each subgoal of the archive
+    private double[] archiveDistances = new double[0];
+    private ConvergenceMonitor convergence;
     private Random rng;
 }
@@ -3,18 +3,24 @@ package controllers.autoSubgoalMCTS.SubgoalSearch.MCTSNoveltySearch;
 import controllers.autoSubgoalMCTS.*;
 import controllers.autoSubgoalMCTS.BehaviourFunctions.IBehaviourFunction;
 import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
+import controllers.autoSubgoalMCTS.SubgoalSearch.ConvergenceMonitor;
 import controllers.autoSubgoalMCTS.SubgoalSearch.ISubgoalSearch;
 import framework.core.Controller;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Random;
 
 public class MCTSNoveltySearch implements ISubgoalSearch
 {
     public static double explorationRate = Math.sqrt(2);
     public static int maxSteps = 400;
+    // Steps without reaching a new latent cell after which the search has converged, and the size of these cells
+    public static int convergenceWindow = 50;
+    public static double convergenceCellSize = 10;
+    // Number of selected subgoals used to compute the novelty of a candidate
+    private static final int NUM_NEIGHBOURS = 3;
 
     public MCTSNoveltySearch(int trajectoryLength, IBehaviourFunction behaviourFunction, Random rng)
     {
@@ -22,12 +28,20 @@ public class MCTSNoveltySearch implements ISubgoalSearch
         this.behaviourFunction = behaviourFunction;
         this.rng = rng;
 
-        this.root = new MCTSNode<>(new SearchData());
-        this.root.data.latentState = new double[behaviourFunction.getLatentSize()];
+        this.tree = new MCTSTree(maxSteps + 1);
+        this.actions = new int[tree.getCapacity()];
+        this.rewards = new double[tree.getCapacity()];
+        this.rewardLowerBounds = new double[tree.getCapacity()];
+        this.rewardUpperBounds = new double[tree.getCapacity()];
+        this.latentStates = new double[tree.getCapacity()][];
+        this.latentStates[MCTSTree.ROOT] = new double[behaviourFunction.getLatentSize()];
+        this.rewardVisitor = this::updateReward;
+        this.actionCache = new BaseAction();
         this.noveltyAccumulator = new RewardAccumulator(0.99);
         this.rewardAccumulator = new RewardAccumulator(0.99);
         this.latentCache = new double[behaviourFunction.getLatentSize()];
         this.rootCache = new double[behaviourFunction.getLatentSize()];
+        this.convergence = new ConvergenceMonitor(convergenceWindow, convergenceCellSize);
     }
 
     public ISubgoalSearch createNewSearch(MCTSNode<SubgoalData> parentNode)
@@ -36,6 +50,24 @@ public class MCTSNoveltySearch implements ISubgoalSearch
         return newSearch;
     }
 
+    @Override
+    public void reset(MCTSNode<SubgoalData> parentNode)
+    {
+        tree.reset();
+        rewards[MCTSTree.ROOT] = 0;
+        rewardLowerBounds[MCTSTree.ROOT] = 0;
+        rewardUpperBounds[MCTSTree.ROOT] = 0;
+        noveltyAccumulator.reset();
+        rewardAccumulator.reset();
+        convergence.reset();
+    }
+
+    @Override
+    public ISubgoalSearch copyWithRandom(Random rng)
+    {
+        return new MCTSNoveltySearch(trajectoryLength, behaviourFunction, rng);
+    }
+
     @Override
     public int step(RewardGame game)
     {
@@ -43,38 +75,32 @@ public class MCTSNoveltySearch implements ISubgoalSearch
 
         // Selection
         int depth = 0;
-        MCTSNode<SearchData> currNode = root;
-        while(currNode.children.size() == Controller.NUM_ACTIONS && depth < trajectoryLength)
+        int currNode = MCTSTree.ROOT;
+        while(tree.getChildCount(currNode) == Controller.NUM_ACTIONS && depth < trajectoryLength)
         {
-            behaviourFunction.toLatent(game.getState(), currNode.data.latentState);
-            currNode = currNode.selectUCT(explorationRate, rng);
-            advanceGame(game, currNode.data.action);
+            behaviourFunction.toLatent(game.getState(), latentStates[currNode]);
+            currNode = tree.selectUCT(currNode, explorationRate, rng);
+            advanceGame(game, actions[currNode]);
             depth++;
         }
-        behaviourFunction.toLatent(game.getState(), currNode.data.latentState);
+        behaviourFunction.toLatent(game.getState(), latentStates[currNode]);
 
         // Expansion
+        boolean newCell = false;
         if(depth < trajectoryLength)
         {
-            BaseAction nextAction = new BaseAction(currNode.children.size());
+            int nextAction = tree.getChildCount(currNode);
             advanceGame(game, nextAction);
             depth++;
 
-            SearchData macroData = new SearchData();
-            macroData.action = nextAction;
-            macroData.latentState = new double[behaviourFunction.getLatentSize()];
-            behaviourFunction.toLatent(game.getState(), macroData.latentState);
-            currNode = currNode.addChild(macroData);
+            currNode = addNode(currNode, nextAction);
+            behaviourFunction.toLatent(game.getState(), latentStates[currNode]);
+            newCell = convergence.addCell(latentStates[currNode]);
         }
+        convergence.endStep(newCell);
 
         // Backpropagation
-        currNode.backpropagate(noveltyAccumulator.getRewardSum(), (MCTSNode<SearchData> n) ->
-        {
-            // Dirty hack to track two different statistics, in this case novelty & reward
-            n.data.reward += (rewardAccumulator.getRewardSum() - n.data.reward) / n.visitCount;
-            n.data.rewardLowerBound = Math.min(rewardAccumulator.getRewardSum(), n.data.rewardLowerBound);
-            n.data.rewardUpperBound = Math.max(rewardAccumulator.getRewardSum(), n.data.rewardUpperBound);
-        });
+        tree.backpropagate(currNode, noveltyAccumulator.getRewardSum(), rewardVisitor);
         noveltyAccumulator.reset();
         rewardAccumulator.reset();
         return depth;
@@ -83,56 +109,85 @@ public class MCTSNoveltySearch implements ISubgoalSearch
     @Override
     public boolean isDone()
     {
-        return root.visitCount >= maxSteps;
+        return tree.getVisitCount(MCTSTree.ROOT) >= maxSteps;
+    }
+
+    @Override
+    public boolean hasConverged()
+    {
+        return convergence.hasConverged();
+    }
+
+    @Override
+    public boolean dependsOnParentNode()
+    {
+        return false;
     }
 
     @Override
     public ArrayList<MacroAction> getMacroActions()
     {
-        ArrayList<MCTSNode<SearchData>> subgoalCandidates = new ArrayList<>();
+        ArrayList<Integer> subgoalCandidates = new ArrayList<>();
         int tmpTrajectoryLength = trajectoryLength;
         // Keep reducing the trajectory length if we didnt find any suitable candidates
         while(subgoalCandidates.size() == 0)
         {
             assert(tmpTrajectoryLength > 0);
-            selectSubgoalCandidates(root, tmpTrajectoryLength, subgoalCandidates);
+            selectSubgoalCandidates(MCTSTree.ROOT, tmpTrajectoryLength, subgoalCandidates);
             tmpTrajectoryLength--;
         }
 
         double percentage = 0.02;
         int subgoalCount = (int)Math.ceil(percentage * subgoalCandidates.size());
         assert(subgoalCount > 0);
-        ArrayList<MCTSNode<SearchData>> selectedSubgoals = new ArrayList<>();
-        // The first subgoal is the one with the highest reward
-        selectedSubgoals.add(subgoalCandidates.stream().max(Comparator.comparing(n -> n.data.reward)).get());
+        ArrayList<Integer> selectedSubgoals = new ArrayList<>();
+        // The first subgoal is the one with the highest reward (the first one found on ties)
+        int bestRewardNode = subgoalCandidates.get(0);
+        for(int candidate : subgoalCandidates)
+        {
+            if(Double.compare(rewards[candidate], rewards[bestRewardNode]) > 0)
+                bestRewardNode = candidate;
+        }
+        selectedSubgoals.add(bestRewardNode);
 
         double[] noveltyCache = new double[subgoalCandidates.size()];
         double[] rewardCache = new double[subgoalCandidates.size()];
+        // Distances from each candidate to its (up to) NUM_NEIGHBOURS closest selected subgoals in ascending order, and
+        // the rewards of those subgoals. They are updated with each new subgoal instead of searching them every round
+        double[] nearestDistances = new double[NUM_NEIGHBOURS * subgoalCandidates.size()];
+        double[] nearestRewards = new double[NUM_NEIGHBOURS * subgoalCandidates.size()];
+        int[] nearestCount = new int[subgoalCandidates.size()];
+        // Candidates with a tie at the farthest of their neighbours, which neighbour is kept then depends on the order
+        // of the selected subgoals (see getNeighboursInListOrder), so they are not updated incrementally anymore
+        boolean[] neighbourTie = new boolean[subgoalCandidates.size()];
         double minNovelty = Double.POSITIVE_INFINITY;
         double maxNovelty = Double.NEGATIVE_INFINITY;
         while(selectedSubgoals.size() < subgoalCount)
         {
+            int round = selectedSubgoals.size() - 1;
+            int newSubgoal = selectedSubgoals.get(round);
+
             // Compute the novelty & reward for each candidate
             for(int i = 0; i < subgoalCandidates.size(); i++)
             {
-                MCTSNode<SearchData> candidate = subgoalCandidates.get(i);
+                int candidate = subgoalCandidates.get(i);
 
-                // Find the n-closest neighbors from all selected subgoals
-                int n = selectedSubgoals.size() > 3 ? 3 : selectedSubgoals.size();
-                Collections.sort(selectedSubgoals, (MCTSNode<SearchData> v1, MCTSNode<SearchData> v2) ->
+                // Update the n-closest neighbors from all selected subgoals
+                if(!neighbourTie[i])
                 {
-                    double v1Dist = latentDist(v1.data.latentState, candidate.data.latentState);
-                    double v2Dist = latentDist(v2.data.latentState, candidate.data.latentState);
-                    return v1Dist > v2Dist ? 1 : v1Dist < v2Dist ? -1 : 0;
-                });
+                    double distance = latentDist(latentStates[newSubgoal], latentStates[candidate]);
+                    neighbourTie[i] = addNeighbour(i, distance, rewards[newSubgoal], nearestDistances, nearestRewards, nearestCount);
+                }
+                if(neighbourTie[i])
+                    getNeighboursInListOrder(selectedSubgoals, subgoalCandidates, round, i, nearestDistances, nearestRewards, nearestCount);
 
                 // Compute novelty & rewards scores
                 noveltyCache[i] = 0;
                 rewardCache[i] = 3;
-                for(int x = 0; x < n; x++)
+                for(int x = i * NUM_NEIGHBOURS; x < i * NUM_NEIGHBOURS + nearestCount[i]; x++)
                 {
-                    noveltyCache[i] += latentDist(candidate.data.latentState, selectedSubgoals.get(x).data.latentState);
-                    if(selectedSubgoals.get(x).data.reward >= candidate.data.reward)
+                    noveltyCache[i] += nearestDistances[x];
+                    if(nearestRewards[x] >= rewards[candidate])
                     {
                         rewardCache[i]--;
                     }
@@ -142,7 +197,7 @@ public class MCTSNoveltySearch implements ISubgoalSearch
             }
 
             // Find best candidate
-            MCTSNode<SearchData> bestCandidate = null;
+            int bestCandidate = MCTSTree.NONE;
             double bestScore = Double.NEGATIVE_INFINITY;
             for(int i = 0; i < subgoalCandidates.size(); i++)
             {
@@ -159,17 +214,33 @@ public class MCTSNoveltySearch implements ISubgoalSearch
             selectedSubgoals.add(bestCandidate);
         }
 
+        // The macro actions are returned with the subgoals (but the last one) in the order they had after the
+        // neighbours of the last candidate were searched
+        if(selectedSubgoals.size() > 1)
+        {
+            int lastRound = selectedSubgoals.size() - 2;
+            ArrayList<Integer> order = new ArrayList<>();
+            for(int x = 0; x <= lastRound; x++)
+                order.add(x);
+            order.sort((s, t) -> compareListOrder(selectedSubgoals, subgoalCandidates, s, t, lastRound, subgoalCandidates.size()));
+            ArrayList<Integer> sorted = new ArrayList<>();
+            for(int x : order)
+                sorted.add(selectedSubgoals.get(x));
+            for(int x = 0; x <= lastRound; x++)
+                selectedSubgoals.set(x, sorted.get(x));
+        }
+
         // Convert to macro actions
         ArrayList<MacroAction> macroActions = new ArrayList<>();
-        for(MCTSNode<SearchData> subgoal : selectedSubgoals)
+        for(int subgoal : selectedSubgoals)
         {
             // Collect macro action
             MacroAction newMacroAction = new MacroAction();
-            MCTSNode<SearchData> tmpNode = subgoal;
-            while (tmpNode.parent != null)
+            int tmpNode = subgoal;
+            while (!tree.isRootNode(tmpNode))
             {
-                newMacroAction.actions.add(tmpNode.data.action);
-                tmpNode = tmpNode.parent;
+                newMacroAction.actions.add(new BaseAction(actions[tmpNode]));
+                tmpNode = tree.getParent(tmpNode);
             }
             // We collect the actions from bottom to top, meaning they are in the wrong order
             Collections.reverse(newMacroAction.actions);
@@ -179,27 +250,140 @@ public class MCTSNoveltySearch implements ISubgoalSearch
         return macroActions;
     }
 
-    private void selectSubgoalCandidates(MCTSNode<SearchData> node, int count, ArrayList<MCTSNode<SearchData>> bucket)
+    // Inserts a selected subgoal among the closest ones of the candidate, keeping the NUM_NEIGHBOURS closest ones
+    // sorted by distance (on ties, the ones selected first go first). Returns true if some subgoal not kept is as
+    // close as the farthest one kept, the closest ones are not well defined by their distance alone then
+    private static boolean addNeighbour(int candidate, double distance, double reward, double[] nearestDistances,
+                                     double[] nearestRewards, int[] nearestCount)
+    {
+        int offset = candidate * NUM_NEIGHBOURS;
+        int position = nearestCount[candidate];
+        boolean tie = false;
+        if(position == NUM_NEIGHBOURS)
+        {
+            double farthest = nearestDistances[offset + NUM_NEIGHBOURS - 1];
+            tie = distance == farthest || (distance < farthest && nearestDistances[offset + NUM_NEIGHBOURS - 2] == farthest);
+        }
+        while(position > 0 && distance < nearestDistances[offset + position - 1])
+            position--;
+        if(position == NUM_NEIGHBOURS)
+            return tie;
+
+        int last = Math.min(nearestCount[candidate], NUM_NEIGHBOURS - 1);
+        System.arraycopy(nearestDistances, offset + position, nearestDistances, offset + position + 1, last - position);
+        System.arraycopy(nearestRewards, offset + position, nearestRewards, offset + position + 1, last - position);
+        nearestDistances[offset + position] = distance;
+        nearestRewards[offset + position] = reward;
+        nearestCount[candidate] = last + 1;
+        return tie;
+    }
+
+    // Finds the NUM_NEIGHBOURS closest selected subgoals of candidate i in round round from scratch. Subgoals at the
+    // same distance are taken in the order of the list of selected subgoals as it is sorted in place by distance to
+    // each candidate in turn (see compareListOrder)
+    private void getNeighboursInListOrder(ArrayList<Integer> selectedSubgoals, ArrayList<Integer> subgoalCandidates,
+                                          int round, int i, double[] nearestDistances, double[] nearestRewards,
+                                          int[] nearestCount)
+    {
+        double[] candidateLatent = latentStates[subgoalCandidates.get(i)];
+        ArrayList<Integer> order = new ArrayList<>();
+        for(int x = 0; x < selectedSubgoals.size(); x++)
+            order.add(x);
+        order.sort((s, t) ->
+        {
+            int result = Double.compare(latentDist(latentStates[selectedSubgoals.get(s)], candidateLatent),
+                    latentDist(latentStates[selectedSubgoals.get(t)], candidateLatent));
+            return result != 0 ? result : compareListOrder(selectedSubgoals, subgoalCandidates, s, t, round, i);
+        });
+
+        int offset = i * NUM_NEIGHBOURS;
+        nearestCount[i] = Math.min(NUM_NEIGHBOURS, order.size());
+        for(int x = 0; x < nearestCount[i]; x++)
+        {
+            int subgoal = selectedSubgoals.get(order.get(x));
+            nearestDistances[offset + x] = latentDist(latentStates[subgoal], candidateLatent);
+            nearestRewards[offset + x] = rewards[subgoal];
+        }
+    }
+
+    // Compares the positions of the selected subgoals s and t (indexes in selection order, the one at index k is in
+    // the list from round k on) in a list that is stably sorted by the distance to each candidate in turn, and gets
+    // each new subgoal appended at the end of a round. Before candidate i of round round, the list is sorted by the
+    // distance to candidate i - 1, ties by the distance to candidate i - 2 and so on back to the round in which the
+    // later of the two was appended, and the one selected first goes first if they tie on all of them
+    private int compareListOrder(ArrayList<Integer> selectedSubgoals, ArrayList<Integer> subgoalCandidates, int s,
+                                 int t, int round, int i)
+    {
+        double[] sLatent = latentStates[selectedSubgoals.get(s)];
+        double[] tLatent = latentStates[selectedSubgoals.get(t)];
+        // Candidates of the previous rounds come after candidate i - 1 of this one, and repeat the same distances
+        int candidates = Math.max(s, t) < round ? subgoalCandidates.size() : i;
+        for(int x = 1; x <= candidates; x++)
+        {
+            int j = Math.floorMod(i - x, subgoalCandidates.size());
+            double[] candidateLatent = latentStates[subgoalCandidates.get(j)];
+            int result = Double.compare(latentDist(sLatent, candidateLatent), latentDist(tLatent, candidateLatent));
+            if(result != 0)
+                return result;
+        }
+        return Integer.compare(s, t);
+    }
+
+    private void selectSubgoalCandidates(int node, int count, ArrayList<Integer> bucket)
     {
         if(count == 0)
         {
-            if(node.visitCount > 0)
+            if(tree.getVisitCount(node) > 0)
                 bucket.add(node);
             return;
         }
 
         count--;
-        for(MCTSNode<SearchData> child : node.children)
+        for(int child = tree.getFirstChild(node); child != MCTSTree.NONE; child = tree.getNextSibling(child))
         {
             selectSubgoalCandidates(child, count, bucket);
         }
     }
 
-    private void advanceGame(RewardGame game, BaseAction action)
+    // Adds a child to the tree, growing the arrays of the node data with it. The latent arrays are kept when the
+    // tree is reset, so they are only allocated the first time a node index is used
+    private int addNode(int parent, int action)
+    {
+        int node = tree.addChild(parent);
+        if(actions.length < tree.getCapacity())
+        {
+            int capacity = tree.getCapacity();
+            actions = Arrays.copyOf(actions, capacity);
+            rewards = Arrays.copyOf(rewards, capacity);
+            rewardLowerBounds = Arrays.copyOf(rewardLowerBounds, capacity);
+            rewardUpperBounds = Arrays.copyOf(rewardUpperBounds, capacity);
+            latentStates = Arrays.copyOf(latentStates, capacity);
+        }
+        if(latentStates[node] == null)
+            latentStates[node] = new double[behaviourFunction.getLatentSize()];
+
+        actions[node] = action;
+        rewards[node] = 0;
+        rewardLowerBounds[node] = 0;
+        rewardUpperBounds[node] = 0;
+        return node;
+    }
+
+    // Dirty hack to track two different statistics, in this case novelty & reward
+    private void updateReward(int node)
+    {
+        double rewardSum = rewardAccumulator.getRewardSum();
+        rewards[node] += (rewardSum - rewards[node]) / tree.getVisitCount(node);
+        rewardLowerBounds[node] = Math.min(rewardSum, rewardLowerBounds[node]);
+        rewardUpperBounds[node] = Math.max(rewardSum, rewardUpperBounds[node]);
+    }
+
+    private void advanceGame(RewardGame game, int action)
     {
         behaviourFunction.toLatent(game.getState(), latentCache);
         double distanceBefore = latentDist(rootCache, latentCache);
-        rewardAccumulator.addReward(action.apply(game));
+        actionCache.lowLevelAction = action;
+        rewardAccumulator.addReward(actionCache.apply(game));
         behaviourFunction.toLatent(game.getState(), latentCache);
         double distanceAfter = latentDist(rootCache, latentCache);
         noveltyAccumulator.addReward(distanceAfter - distanceBefore);
@@ -216,12 +400,21 @@ public class MCTSNoveltySearch implements ISubgoalSearch
         return Math.sqrt(sumSquared);
     }
 
-    private MCTSNode<SearchData> root;
+    // Search tree, the data of each node is kept in the arrays below indexed by node
+    private MCTSTree tree;
+    private int[] actions;
+    private double[] rewards;
+    private double[] rewardLowerBounds;
+    private double[] rewardUpperBounds;
+    private double[][] latentStates;
+    private MCTSTree.INodeVisitor rewardVisitor;
+    private BaseAction actionCache;
     private int trajectoryLength;
     private RewardAccumulator noveltyAccumulator;
     private RewardAccumulator rewardAccumulator;
     public IBehaviourFunction behaviourFunction;
     private double[] latentCache;
     private double[] rootCache;
+    private ConvergenceMonitor convergence;
     private Random rng;
 }
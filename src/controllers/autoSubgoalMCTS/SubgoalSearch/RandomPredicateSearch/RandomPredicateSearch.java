@@ -6,10 +6,13 @@ import controllers.autoSubgoalMCTS.MacroAction;
 import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
 import controllers.autoSubgoalMCTS.SubgoalData;
 import controllers.autoSubgoalMCTS.SubgoalPredicates.ISubgoalPredicate;
+import controllers.autoSubgoalMCTS.SubgoalSearch.ConvergenceMonitor;
 import controllers.autoSubgoalMCTS.SubgoalSearch.ISubgoalSearch;
 import framework.core.Game;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Random;
 
 public class RandomPredicateSearch implements ISubgoalSearch
@@ -17,18 +20,24 @@ public class RandomPredicateSearch implements ISubgoalSearch
     // If true this algorithm behaves like the original Subgoal MCTS algorithm
     // If false we will ignore any state that reaches the horizon, if it is not a subgoal of course
     public static boolean treatHorizonStatesAsSubgoals = false;
+    // Steps without finding a new subgoal after which the search has converged
+    public static int convergenceWindow = 100;
 
     public RandomPredicateSearch(ISubgoalPredicate predicate, int horizon, int steps, Random rng)
     {
         this.predicate = predicate;
         this.macroActions = new ArrayList<>();
-        this.states = new ArrayList<>();
-        this.rewards = new ArrayList<>();
+        this.subgoalIndex = new HashMap<>();
+        this.positionsX = new double[16];
+        this.positionsY = new double[16];
+        this.ended = new boolean[16];
+        this.rewards = new double[16];
         this.horizon = horizon;
         this.steps = steps;
         this.rng = rng;
 
         this.stepCount = 0;
+        this.convergence = new ConvergenceMonitor(convergenceWindow);
     }
 
     @Override
@@ -53,46 +62,77 @@ public class RandomPredicateSearch implements ISubgoalSearch
             }
         }
         double rewardAfter = state.getRewardSum();
+        boolean newSubgoal = false;
 
         // Update macro actions
         boolean isTrueSubgoal = predicate.isSubgoal(state.getState());
         boolean isHorizonSubgoal = !isTrueSubgoal && depth == horizon && treatHorizonStatesAsSubgoals;
         if(isHorizonSubgoal || isTrueSubgoal)
         {
-            boolean found = false;
-            for(int i = 0; i < macroActions.size(); i++)
+            int i = findSubgoal(state.getState(), isTrueSubgoal);
+            if(i != -1)
             {
-                boolean trueSubgoalCondition = isTrueSubgoal && predicate.isSameSubgoal(state.getState(), states.get(i));
-                boolean horizonSubgoalCondition = isHorizonSubgoal && predicate.isSameState(state.getState(), states.get(i));
-                if(trueSubgoalCondition || horizonSubgoalCondition)
+                // Check if we found a better trajectory
+                if(rewards[i] < (rewardAfter - rewardBefore))
                 {
-                    // Check if we found a better trajectory
-                    if(rewards.get(i) < (rewardAfter - rewardBefore))
-                    {
-                        // Replace macro action
-                        // Note we do not change the state, although it may change slightly
-                        // This is to prevent a wandering subgoal when treatHorizonStatesAsSubgoals is true
-                        // Wandering occurs because we use an error margin to detect subgoals
-                        macroActions.set(i, macroAction);
-                    }
-
-                    found = true;
-                    break;
+                    // Replace macro action
+                    // Note we do not change the state, although it may change slightly
+                    // This is to prevent a wandering subgoal when treatHorizonStatesAsSubgoals is true
+                    // Wandering occurs because we use an error margin to detect subgoals
+                    macroActions.set(i, macroAction);
                 }
             }
-
-            // We found a new subgoal
-            if(!found)
+            else
             {
-                states.add(state.getState().getCopy());
-                rewards.add(rewardAfter - rewardBefore);
+                // We found a new subgoal
+                addSubgoal(state.getState(), rewardAfter - rewardBefore);
                 macroActions.add(macroAction);
+                newSubgoal = true;
             }
         }
+        convergence.endStep(newSubgoal);
 
         return depth;
     }
 
+    // Index of the first subgoal found that is the same subgoal as (or for horizon subgoals, the same state as) the
+    // given state, -1 if there is none
+    private int findSubgoal(Game state, boolean isTrueSubgoal)
+    {
+        // The subgoals of states that are not ended are found by their key
+        if(isTrueSubgoal && !state.isEnded())
+        {
+            Integer index = subgoalIndex.get(predicate.getSubgoalKey(state));
+            return index == null ? -1 : index;
+        }
+
+        // Ended states and horizon subgoals have to be close to the stored position, these are few
+        for(int i = 0; i < macroActions.size(); i++)
+        {
+            if((!isTrueSubgoal || ended[i]) && predicate.isSameState(state, positionsX[i], positionsY[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    private void addSubgoal(Game state, double reward)
+    {
+        int i = macroActions.size();
+        if(i == rewards.length)
+        {
+            positionsX = Arrays.copyOf(positionsX, 2 * i);
+            positionsY = Arrays.copyOf(positionsY, 2 * i);
+            ended = Arrays.copyOf(ended, 2 * i);
+            rewards = Arrays.copyOf(rewards, 2 * i);
+        }
+
+        positionsX[i] = state.getShip().s.x;
+        positionsY[i] = state.getShip().s.y;
+        ended[i] = state.isEnded();
+        rewards[i] = reward;
+        subgoalIndex.putIfAbsent(predicate.getSubgoalKey(state), i);
+    }
+
     @Override
     public boolean isDone()
     {
@@ -106,6 +146,18 @@ public class RandomPredicateSearch implements ISubgoalSearch
         return stepCount >= steps;
     }
 
+    @Override
+    public boolean hasConverged()
+    {
+        return convergence.hasConverged();
+    }
+
+    @Override
+    public boolean dependsOnParentNode()
+    {
+        return false;
+    }
+
     @Override
     public ArrayList<MacroAction> getMacroActions()
     {
@@ -119,12 +171,34 @@ public class RandomPredicateSearch implements ISubgoalSearch
         return subgoalSearch;
     }
 
+    @Override
+    public void reset(MCTSNode<SubgoalData> parentNode)
+    {
+        // The list of macro actions may still be in use
+        macroActions = new ArrayList<>();
+        subgoalIndex.clear();
+        stepCount = 0;
+        convergence.reset();
+    }
+
+    @Override
+    public ISubgoalSearch copyWithRandom(Random rng)
+    {
+        return new RandomPredicateSearch(predicate, horizon, steps, rng);
+    }
+
     Random rng;
     private ISubgoalPredicate predicate;
     private ArrayList<MacroAction> macroActions;
-    private ArrayList<Game> states;
-    private ArrayList<Double> rewards;
+    // Subgoals found so far, indexed as in macroActions: position of the ship, whether the game ended and reward
+    private double[] positionsX;
+    private double[] positionsY;
+    private boolean[] ended;
+    private double[] rewards;
+    // First subgoal found for each subgoal key
+    private HashMap<Long, Integer> subgoalIndex;
     private int stepCount;
+    private ConvergenceMonitor convergence;
     private int steps;
     private int horizon;
 }
@@ -3,25 +3,41 @@ package controllers.autoSubgoalMCTS.SubgoalSearch.ScalarNSLCSearch;
 import controllers.autoSubgoalMCTS.*;
 import controllers.autoSubgoalMCTS.BehaviourFunctions.IBehaviourFunction;
 import controllers.autoSubgoalMCTS.GeneticAlgorithm.Genome;
+import controllers.autoSubgoalMCTS.RewardGames.ForwardCallCounter;
 import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
 import controllers.autoSubgoalMCTS.SubgoalSearch.ISubgoalSearch;
 import controllers.autoSubgoalMCTS.SubgoalSearch.ScalarNSLCSearch.SearchData;
 import framework.core.Controller;
+import framework.core.GameState;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ScalarNSLCSearch implements ISubgoalSearch
 {
     public static int GenomeLength = 4;
     public static int PopulationSize = 20;
     public static double MutationRate = 1. / GenomeLength;
+    // Threads evaluating the genomes of a generation, shared by all the searches. With 1 the genomes are evaluated on
+    // the calling thread drawing from the random numbers of the search, otherwise each genome gets a random seed
+    // drawn from them so the results do not depend on which thread evaluates it
+    public static int numThreads = 1;
+
+    // Grows with numThreads if it is raised after the first search
+    private static final WorkerPool evaluationPool = new WorkerPool("ScalarNSLCSearch worker");
+    // Number of genetic algorithm runs (one per step) and generations they needed, over all the searches
+    private static final AtomicLong runs = new AtomicLong();
+    private static final AtomicLong generations = new AtomicLong();
 
     ArrayList<Genome<SearchData>> currPopulation;
     ArrayList<Genome<SearchData>> nextPopulation;
     RewardAccumulator rewardAccumulator;
+    GameState initialState;
 
     ArrayList<SearchData> subgoalArchive;
 
@@ -33,6 +49,16 @@ public class ScalarNSLCSearch implements ISubgoalSearch
     int stagnationCount;
     double bestFoundScore;
 
+    // Used when numThreads > 1: game, random numbers and accumulator of each worker, and the seed and results of each
+    // genome of the generation being evaluated
+    RewardGame[] workerGames;
+    Random[] workerRngs;
+    RewardAccumulator[] workerAccumulators;
+    long[] genomeSeeds;
+    double[] genomeRewards;
+    double[][] genomeLatents;
+    MacroAction[] genomeMacroActions;
+
     public ScalarNSLCSearch(IBehaviourFunction behaviourFunction, Random rng, int steps, int stagnationCount)
     {
         this.behaviourFunction = behaviourFunction;
@@ -46,12 +72,8 @@ public class ScalarNSLCSearch implements ISubgoalSearch
         nextPopulation = new ArrayList<>(PopulationSize);
         subgoalArchive = new ArrayList<>();
         rewardAccumulator = new RewardAccumulator(0.99);
-
-        for(int i = 0; i < PopulationSize; i++)
-        {
-            currPopulation.add(new Genome(GenomeLength, rng, new SearchData()));
-            nextPopulation.add(new Genome(GenomeLength, rng, new SearchData()));
-        }
+        initialState = new GameState();
+        // The populations are filled with random genomes at the start of each step
     }
 
     @Override
@@ -146,7 +168,8 @@ public class ScalarNSLCSearch implements ISubgoalSearch
             }
         }
 
-        System.out.println("Converged after " + steps + " steps");
+        runs.incrementAndGet();
+        generations.addAndGet(steps);
 
         subgoalArchive.add(bestGenome.data);
         // Apply best genome to the state passed to us, such that the corresponding state can be used by the high-level search
@@ -165,6 +188,20 @@ public class ScalarNSLCSearch implements ISubgoalSearch
         return subgoalArchive.size() == 3;
     }
 
+    @Override
+    public boolean hasConverged()
+    {
+        // Every step already runs the genetic algorithm until it stagnates and adds one subgoal, there is nothing to
+        // stop earlier
+        return false;
+    }
+
+    @Override
+    public boolean dependsOnParentNode()
+    {
+        return false;
+    }
+
     @Override
     public ArrayList<MacroAction> getMacroActions()
     {
@@ -182,13 +219,40 @@ public class ScalarNSLCSearch implements ISubgoalSearch
         return new ScalarNSLCSearch(behaviourFunction, rng, maxSteps, maxStagnationCount);
     }
 
+    @Override
+    public void reset(MCTSNode<SubgoalData> parentNode)
+    {
+        // The populations are created again by step
+        steps = 0;
+        stagnationCount = 0;
+        bestFoundScore = Double.NEGATIVE_INFINITY;
+        subgoalArchive = new ArrayList<>();
+    }
+
+    @Override
+    public ISubgoalSearch copyWithRandom(Random rng)
+    {
+        return new ScalarNSLCSearch(behaviourFunction, rng, maxSteps, maxStagnationCount);
+    }
+
+    public static long getRuns() { return runs.get(); }
+    public static long getGenerations() { return generations.get(); }
+
     private void runGenomes(ArrayList<Genome<SearchData>> genomes, RewardGame game)
     {
+        if(numThreads > 1)
+        {
+            runGenomesParallel(genomes, game);
+            return;
+        }
 
+        // All genomes start from the same state, restore it into a single copy instead of copying the game per genome
+        game.copyInto(initialState);
+        RewardGame copy = game.getCopy();
         for(int i = 0; i < genomes.size(); i++)
         {
             Genome<SearchData> currGenome = genomes.get(i);
-            RewardGame copy = game.getCopy();
+            copy.restoreFrom(initialState, game.getRewardSum());
 
             rewardAccumulator.reset();
             // Apply actions
@@ -199,7 +263,7 @@ public class ScalarNSLCSearch implements ISubgoalSearch
                 rewardAccumulator.addReward(baseAction.apply(copy));
                 macroAction.actions.add(baseAction);
             }
-            rewardAccumulator.addReward(rollout(copy, GenomeLength));
+            rewardAccumulator.addReward(rollout(copy, GenomeLength, rng));
 
             // Update data in the genome
             currGenome.data.reward = rewardAccumulator.getRewardSum();
@@ -209,6 +273,95 @@ public class ScalarNSLCSearch implements ISubgoalSearch
         }
     }
 
+    private void runGenomesParallel(ArrayList<Genome<SearchData>> genomes, RewardGame game)
+    {
+        int numWorkers = Math.min(numThreads, genomes.size());
+        if(workerGames == null || workerGames.length != numWorkers || genomeSeeds.length != genomes.size())
+        {
+            workerGames = new RewardGame[numWorkers];
+            workerRngs = new Random[numWorkers];
+            workerAccumulators = new RewardAccumulator[numWorkers];
+            for(int w = 0; w < numWorkers; w++)
+            {
+                workerRngs[w] = new Random();
+                workerGames[w] = game.getCopy(new ForwardCallCounter(), workerRngs[w]);
+                workerAccumulators[w] = new RewardAccumulator(0.99);
+            }
+            genomeSeeds = new long[genomes.size()];
+            genomeRewards = new double[genomes.size()];
+            genomeLatents = new double[genomes.size()][];
+            genomeMacroActions = new MacroAction[genomes.size()];
+        }
+
+        game.copyInto(initialState);
+        for(int i = 0; i < genomes.size(); i++)
+            genomeSeeds[i] = rng.nextLong();
+
+        double rewardSum = game.getRewardSum();
+        ArrayList<Future<?>> results = new ArrayList<>();
+        for(int w = 1; w < numWorkers; w++)
+        {
+            int worker = w;
+            results.add(evaluationPool.get(numWorkers - 1).submit(() -> runWorkerGenomes(worker, genomes, rewardSum)));
+        }
+        runWorkerGenomes(0, genomes, rewardSum);
+
+        try
+        {
+            for(Future<?> result : results)
+                result.get();
+        }
+        catch(InterruptedException | ExecutionException e)
+        {
+            throw new RuntimeException("Genome evaluation on a worker thread failed", e);
+        }
+
+        for(int w = 0; w < numWorkers; w++)
+        {
+            game.addCalls(workerGames[w].getCalls());
+            workerGames[w].getCallCounter().reset();
+        }
+
+        // Update the data of the genomes in order, as genomes can share their data
+        for(int i = 0; i < genomes.size(); i++)
+        {
+            Genome<SearchData> currGenome = genomes.get(i);
+            currGenome.data.reward = genomeRewards[i];
+            currGenome.data.latentState = genomeLatents[i];
+            currGenome.data.macroAction = genomeMacroActions[i];
+        }
+    }
+
+    // Evaluates the genomes i with i % workers == worker on the game and random numbers of the worker
+    private void runWorkerGenomes(int worker, ArrayList<Genome<SearchData>> genomes, double rewardSum)
+    {
+        RewardGame copy = workerGames[worker];
+        Random workerRng = workerRngs[worker];
+        RewardAccumulator accumulator = workerAccumulators[worker];
+        for(int i = worker; i < genomes.size(); i += workerGames.length)
+        {
+            Genome<SearchData> currGenome = genomes.get(i);
+            copy.restoreFrom(initialState, rewardSum);
+            workerRng.setSeed(genomeSeeds[i]);
+
+            accumulator.reset();
+            // Apply actions
+            MacroAction macroAction = new MacroAction();
+            for(int x = 0; x < currGenome.actions.length && !copy.isEnded(); x++)
+            {
+                BaseAction baseAction = new BaseAction(currGenome.actions[x]);
+                accumulator.addReward(baseAction.apply(copy));
+                macroAction.actions.add(baseAction);
+            }
+            accumulator.addReward(rollout(copy, GenomeLength, workerRng));
+
+            genomeRewards[i] = accumulator.getRewardSum();
+            genomeLatents[i] = new double[behaviourFunction.getLatentSize()];
+            behaviourFunction.toLatent(copy.getState(), genomeLatents[i]);
+            genomeMacroActions[i] = macroAction;
+        }
+    }
+
     private Genome<SearchData> evaluateGenomes(ArrayList<Genome<SearchData>> genomes)
     {
         if(subgoalArchive.size() == 0)
@@ -286,7 +439,7 @@ public class ScalarNSLCSearch implements ISubgoalSearch
         return bestGenome;
     }
 
-    private double rollout(RewardGame state, int currentDepth)
+    private double rollout(RewardGame state, int currentDepth, Random rng)
     {
         double rewardSum = 0;
         while(!state.isEnded() && currentDepth <= 15)
@@ -0,0 +1,76 @@
+package controllers.autoSubgoalMCTS;
+
+import controllers.autoSubgoalMCTS.SubgoalSearch.ISubgoalSearch;
+import framework.core.Game;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Maps quantised game states (position cell, velocity bucket, heading index and collected waypoints) to the subgoal
+// search started from them, so nodes of the high-level tree reaching the same state share one search and the macro
+// actions it found instead of each one searching again.
+public class TranspositionTable
+{
+    public static class Entry
+    {
+        // Search shared by all the nodes reaching the state, null once its macro actions are kept (the tree reuses it)
+        public ISubgoalSearch subgoalSearch;
+        // Result of the search once it is done, copied for every node that expands with it
+        private ArrayList<MacroAction> macroActions;
+
+        public boolean hasMacroActions() { return macroActions != null; }
+
+        public void setMacroActions(ArrayList<MacroAction> macroActions)
+        {
+            this.macroActions = MacroAction.copyAll(macroActions);
+        }
+
+        // Copies, the tree removes the actions of a macro action as it executes them
+        public ArrayList<MacroAction> getMacroActions()
+        {
+            return MacroAction.copyAll(macroActions);
+        }
+    }
+
+    private final HashMap<StateKey, Entry> entries;
+    private final double cellSize;
+    private final double velocityStep;
+    private final int maxEntries;
+
+    private long lookups;
+    private long hits;
+
+    public TranspositionTable(double cellSize, double velocityStep, int maxEntries)
+    {
+        this.entries = new HashMap<>();
+        this.cellSize = cellSize;
+        this.velocityStep = velocityStep;
+        this.maxEntries = maxEntries;
+    }
+
+    // Returns the entry of the state of the game, adding an empty one if the state is new. Once the table is full it
+    // starts again from scratch
+    public Entry get(Game game)
+    {
+        StateKey key = new StateKey(game, cellSize, velocityStep);
+        lookups++;
+        Entry entry = entries.get(key);
+        if(entry != null)
+        {
+            hits++;
+            return entry;
+        }
+
+        if(entries.size() >= maxEntries)
+            entries.clear();
+        entry = new Entry();
+        entries.put(key, entry);
+        return entry;
+    }
+
+    public void clear() { entries.clear(); }
+
+    public int size() { return entries.size(); }
+    public long getLookups() { return lookups; }
+    public long getHits() { return hits; }
+}
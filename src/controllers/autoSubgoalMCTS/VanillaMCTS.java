@@ -1,5 +1,6 @@
 package controllers.autoSubgoalMCTS;
 
+import controllers.autoSubgoalMCTS.RewardGames.ForwardCallCounter;
 import controllers.autoSubgoalMCTS.RewardGames.NaiveRewardGame;
 import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
 import controllers.heuristic.GameEvaluator;
@@ -8,12 +9,15 @@ import controllers.heuristic.graph.Graph;
 import controllers.mcts.TSPGraph;
 import framework.core.Controller;
 import framework.core.Game;
-import controllers.autoSubgoalMCTS.MCTSNode;
+import framework.core.GameState;
 import framework.utils.Vector2d;
 
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class VanillaMCTS extends AbstractController
 {
@@ -25,6 +29,14 @@ public class VanillaMCTS extends AbstractController
             this.position = position;
         }
 
+        // Used when the node holding the data is reused
+        void set(int action, Vector2d position)
+        {
+            this.action.lowLevelAction = action;
+            this.action.repetitions = BaseAction.DEFAULT_REPETITIONS;
+            this.position.set(position);
+        }
+
         BaseAction action;
         Vector2d position;
     }
@@ -32,68 +44,201 @@ public class VanillaMCTS extends AbstractController
     public static double explorationRate = 10;
     public static int maxRolloutDepth = 30;
 
-    private MCTSNode<MCTSData> root;
-    private RewardAccumulator accumulator;
+    // Number of threads searching the same tree (tree parallelisation), using virtual loss to spread them over the
+    // tree. The forward model budget is split between them. 1 searches on the thread calling getAction only
+    public static int numThreads = 1;
+    // Threads of the workers, shared by all the controllers
+    private static final WorkerPool workerPool = new WorkerPool("VanillaMCTS worker");
+
+    private volatile ConcurrentMCTSNode<MCTSData> root;
+    // Nodes pruned from the tree when the root moves on, reused by the next expansions
+    private NodePool<ConcurrentMCTSNode<MCTSData>> nodePool;
+    // workers[0] runs on the thread calling getAction, the rest on their own threads
+    private Worker[] workers;
+    private ExecutorService executor;
 
     public VanillaMCTS(Game game, long dueTimeMs)
     {
-        root = new MCTSNode<MCTSData>(new MCTSData(-1, game.getShip().s));
-        // Initialize reward accumulator
-        accumulator = new RewardAccumulator(0.99);
+        root = new ConcurrentMCTSNode<MCTSData>(new MCTSData(-1, game.getShip().s.copy()), NUM_ACTIONS);
+        nodePool = new NodePool<>(() -> new ConcurrentMCTSNode<>(new MCTSData(-1, new Vector2d()), NUM_ACTIONS));
+
+        workers = new Worker[Math.max(1, numThreads)];
+        workers[0] = new Worker(rng);
+        for(int i = 1; i < workers.length; i++)
+            workers[i] = new Worker(new Random(rng.nextLong()));
+
+        if(workers.length > 1)
+        {
+            executor = workerPool.get(workers.length - 1);
+        }
     }
 
     @Override
     protected void step(RewardGame game)
     {
-        // Selection
-        int depth = 0;
-        MCTSNode<MCTSData> currNode = root;
-        while (currNode.children.size() == NUM_ACTIONS && depth < maxRolloutDepth)
+        workers[0].step(game);
+    }
+
+    @Override
+    protected void search(Game a_game, long dueTimeMs)
+    {
+        if(workers.length == 1)
         {
-            currNode = currNode.selectUCT(explorationRate, rng);
-            accumulator.addReward(currNode.data.action.apply(game));
-            depth++;
+            super.search(a_game, dueTimeMs);
+            return;
         }
 
-        if (!game.isEnded() && depth < maxRolloutDepth)
+        // Copy the game for each worker here, the game passed by the caller is not thread safe
+        ArrayList<Future<?>> results = new ArrayList<>();
+        for(int i = 1; i < workers.length; i++)
         {
-            // Expansion
-            int nextAction = currNode.children.size();
-            MCTSData newData = new MCTSData(nextAction, game.getState().getShip().s);
-            currNode = currNode.addChild(newData);
-            depth++;
-
-            if(depth > maxRolloutDepth)
-            {
-                System.out.println("Error");
-            }
+            Worker worker = workers[i];
+            RewardGame game = worker.createGame(a_game);
+            int maxCalls = getWorkerBudget(i);
+            results.add(executor.submit(() -> runSearch(game, worker.rootState, dueTimeMs, maxCalls, worker::step)));
+        }
+        runSearch(workers[0].createGame(a_game), workers[0].rootState, dueTimeMs, getWorkerBudget(0), workers[0]::step);
 
-            // Simulation
-            rollout(game, depth, accumulator);
+        try
+        {
+            for(Future<?> result : results)
+                result.get();
         }
+        catch(InterruptedException | ExecutionException e)
+        {
+            throw new RuntimeException("Search on a worker thread failed", e);
+        }
+
+        for(Worker worker : workers)
+            forwardCalls.add(worker.calls.get());
+    }
 
-        // Backpropagation
-        currNode.backpropagate(accumulator.getRewardSum());
-        accumulator.reset();
+    // Forward model calls available to a worker, so that all the workers together use maxForwardCalls
+    private int getWorkerBudget(int workerIndex)
+    {
+        int budget = maxForwardCalls / workers.length;
+        return workerIndex < maxForwardCalls % workers.length ? budget + 1 : budget;
     }
 
     @Override
     protected BaseAction getBestAction()
     {
-        MCTSNode<MCTSData> bestChild = root.getChildWithHighestReturn(rng);
+        ConcurrentMCTSNode<MCTSData> bestChild = root.getChildWithHighestReturn(rng);
+        ConcurrentMCTSNode<MCTSData> oldRoot = root;
         root = bestChild;
         root.parent = null;
+
+        // The search is not running, so the rest of the old tree can go back to the pool
+        for(int i = 0; i < oldRoot.getMaxChildren(); i++)
+        {
+            ConcurrentMCTSNode<MCTSData> child = oldRoot.getChild(i);
+            if(child != null && child != bestChild)
+                releaseSubtree(child);
+        }
+        releaseNode(oldRoot);
         return root.data.action;
     }
 
-    private void rollout(RewardGame state, int currentDepth, RewardAccumulator accumulator)
+    private void releaseSubtree(ConcurrentMCTSNode<MCTSData> node)
     {
-        while(!state.isEnded() && currentDepth <= maxRolloutDepth)
+        for(int i = 0; i < node.getMaxChildren(); i++)
         {
-            BaseAction nextAction = new BaseAction(rng.nextInt(NUM_ACTIONS));
-            accumulator.addReward(nextAction.apply(state));
+            ConcurrentMCTSNode<MCTSData> child = node.getChild(i);
+            if(child != null)
+                releaseSubtree(child);
+        }
+        releaseNode(node);
+    }
 
-            currentDepth++;
+    private void releaseNode(ConcurrentMCTSNode<MCTSData> node)
+    {
+        node.clear();
+        nodePool.release(node);
+    }
+
+    // Fraction of the nodes created by the search that were reused from the pool
+    public double getPoolHitRate() { return nodePool.getHitRate(); }
+    // Highest number of nodes that were part of the tree at once (the initial root is not counted)
+    public int getPeakLiveNodes() { return nodePool.getPeakLiveNodes(); }
+
+    // Everything an iteration modifies apart from the tree, one per thread
+    private class Worker
+    {
+        Random rng;
+        RewardAccumulator accumulator;
+        GameState rootState;
+        ForwardCallCounter calls;
+
+        Worker(Random rng)
+        {
+            this.rng = rng;
+            // Initialize reward accumulator
+            accumulator = new RewardAccumulator(0.99);
+            rootState = new GameState();
+            calls = new ForwardCallCounter();
+        }
+
+        // Game to search on with its own forward model counter and random numbers, for tree parallelisation
+        RewardGame createGame(Game a_game)
+        {
+            calls.reset();
+            RewardGame game = new NaiveRewardGame(a_game.getSimulationCopy(), calls);
+            game.setRandom(rng);
+            return game;
+        }
+
+        void step(RewardGame game)
+        {
+            boolean useVirtualLoss = workers.length > 1;
+
+            // Selection
+            int depth = 0;
+            ConcurrentMCTSNode<MCTSData> currNode = root;
+            while (currNode.isFullyExpanded() && depth < maxRolloutDepth)
+            {
+                ConcurrentMCTSNode<MCTSData> nextNode = currNode.selectUCT(explorationRate, rng, useVirtualLoss);
+                if (nextNode == null)
+                    break;
+                currNode = nextNode;
+                accumulator.addReward(currNode.data.action.apply(game));
+                depth++;
+            }
+
+            if (!game.isEnded() && depth < maxRolloutDepth)
+            {
+                // Expansion, unless other threads have already claimed all the children
+                int nextAction = currNode.claimChild();
+                if (nextAction != -1)
+                {
+                    ConcurrentMCTSNode<MCTSData> newNode = nodePool.acquire();
+                    newNode.data.set(nextAction, game.getState().getShip().s);
+                    currNode = currNode.setChild(nextAction, newNode, useVirtualLoss);
+                    depth++;
+
+                    if(depth > maxRolloutDepth)
+                    {
+                        System.out.println("Error");
+                    }
+                }
+
+                // Simulation
+                rollout(game, depth);
+            }
+
+            // Backpropagation
+            currNode.backpropagate(accumulator.getRewardSum(), useVirtualLoss);
+            accumulator.reset();
+        }
+
+        void rollout(RewardGame state, int currentDepth)
+        {
+            while(!state.isEnded() && currentDepth <= maxRolloutDepth)
+            {
+                BaseAction nextAction = new BaseAction(rng.nextInt(NUM_ACTIONS));
+                accumulator.addReward(nextAction.apply(state));
+
+                currentDepth++;
+            }
         }
     }
 
@@ -104,11 +249,13 @@ public class VanillaMCTS extends AbstractController
         drawTree(graphics, root);
     }
 
-    private void drawTree(Graphics2D graphics, MCTSNode<MCTSData> node)
+    private void drawTree(Graphics2D graphics, ConcurrentMCTSNode<MCTSData> node)
     {
-        for(int i = 0; i < node.children.size(); i++)
+        for(int i = 0; i < node.getMaxChildren(); i++)
         {
-            MCTSNode<MCTSData> child = node.children.get(i);
+            ConcurrentMCTSNode<MCTSData> child = node.getChild(i);
+            if(child == null)
+                continue;
             graphics.drawLine((int)node.data.position.x, (int)node.data.position.y, (int)child.data.position.x, (int)child.data.position.y);
             drawTree(graphics, child);
         }
@@ -0,0 +1,46 @@
+package controllers.autoSubgoalMCTS;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Thread pool shared by all the instances of a controller or search, meant to be kept in a static field. It is
+// created on first use and grows when an instance needs more threads than it has. Its threads are daemons and end
+// after some time without work, so the experiments can create a controller per trial without leaving threads behind.
+public class WorkerPool
+{
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String threadName;
+    private ThreadPoolExecutor executor;
+
+    public WorkerPool(String threadName)
+    {
+        this.threadName = threadName;
+    }
+
+    // Returns the pool, making sure it runs at least the given number of tasks at once
+    public synchronized ExecutorService get(int threads)
+    {
+        threads = Math.max(1, threads);
+        if(executor == null)
+        {
+            executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable ->
+            {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        else if(executor.getMaximumPoolSize() < threads)
+        {
+            // The maximum first, the core size can not go above it
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        }
+        return executor;
+    }
+}
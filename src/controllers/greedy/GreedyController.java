@@ -112,7 +112,7 @@ public class GreedyController extends Controller
             for(int action = startAction; action < Controller.NUM_ACTIONS; ++action)
             {
                 //Simulate that we execute the action and get my potential position and direction
-                Game forThisAction = a_gameCopy.getCopy();
+                Game forThisAction = a_gameCopy.getSimulationCopy();
                 forThisAction.getShip().update(action);
                 Vector2d nextPosition = forThisAction.getShip().s;
                 Vector2d potentialDirection = forThisAction.getShip().d;
@@ -232,7 +232,7 @@ public class GreedyController extends Controller
             for(int i = Controller.ACTION_NO_FRONT; i <= Controller.ACTION_NO_RIGHT; ++i)
             {
                 //Select the action that maximises my dot product with the target (aka. makes the ship face the target better).
-                forThisAction = a_gameCopy.getCopy();
+                forThisAction = a_gameCopy.getSimulationCopy();
                 forThisAction.getShip().update(i);
                 Vector2d potentialDirection = forThisAction.getShip().d;
                 double newDot = potentialDirection.dot(dirToWaypoint);
@@ -94,7 +94,7 @@ public class LineOfSight extends Controller
             for(int i = Controller.ACTION_NO_FRONT; i <= Controller.ACTION_NO_RIGHT; ++i)
             {
                 //Select the action that maximises my dot product with the target (aka. makes the ship face the target better).
-                forThisAction = a_gameCopy.getCopy();
+                forThisAction = a_gameCopy.getSimulationCopy();
                 forThisAction.getShip().update(i);
                 Vector2d potentialDirection = forThisAction.getShip().d;
                 double newDot = potentialDirection.dot(dirToWaypoint);
@@ -414,7 +414,7 @@ public class MCTS
      */
     private MCTSNode expand(MCTSNode a_node)
     {
-        Game newGame=a_node.m_game.getCopy();
+        Game newGame=a_node.m_game.getSimulationCopy();
         int nthMove=a_node.m_children.size();
         MacroAction move = m_actionList.get(nthMove);
         advanceGame(newGame, move);
@@ -497,7 +497,7 @@ public class MCTS
         int count=a_startingDepth;
         m_obstacleCounter = a_node.m_obstacleCounter;
         try{
-            newGame=a_node.m_game.getCopy();
+            newGame=a_node.m_game.getSimulationCopy();
             boolean gameEnded = m_gameEvaluator.isEndGame(newGame);
 
             //while(count++<ROLLOUT_DEPTH && !newGame.isEnded())
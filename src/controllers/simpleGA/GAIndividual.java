@@ -33,7 +33,7 @@ public class GAIndividual
 
     public Game evaluate(Game a_gameState, GameEvaluator a_gameEvaluator)
     {
-        Game thisGameCopy = a_gameState.getCopy();
+        Game thisGameCopy = a_gameState.getSimulationCopy();
         boolean end = false;
         for(int i = 0; i < m_genome.length; ++i)
         {
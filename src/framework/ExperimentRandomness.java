@@ -4,7 +4,6 @@ import controllers.autoSubgoalMCTS.AbstractController;
 import controllers.autoSubgoalMCTS.AutoSubgoalController;
 import controllers.autoSubgoalMCTS.BehaviourFunctions.PositionBehaviourFunction;
 import controllers.autoSubgoalMCTS.GeneticAlgorithm.GAController;
-import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
 import controllers.autoSubgoalMCTS.SubgoalPredicates.PositionGridPredicate;
 import controllers.autoSubgoalMCTS.SubgoalSearch.MCTSNoveltySearch.MCTSNoveltySearch;
 import controllers.autoSubgoalMCTS.SubgoalSearch.RandomPredicateSearch.RandomPredicateSearch;
@@ -84,7 +83,8 @@ public class ExperimentRandomness extends Exec
                         m_game.tickRandom(action);
 
                         // Track stats
-                        fmCallsSum += RewardGame.getCalls();
+                        if(m_controller instanceof AbstractController)
+                            fmCallsSum += ((AbstractController) m_controller).getForwardCalls();
                         msPerActionSum += end - begin;
                     }
 
@@ -5,7 +5,6 @@ import controllers.autoSubgoalMCTS.AutoSubgoalController;
 import controllers.autoSubgoalMCTS.BehaviourFunctions.PositionBehaviourFunction;
 import controllers.autoSubgoalMCTS.GeneticAlgorithm.GAController;
 import controllers.autoSubgoalMCTS.VanillaMCTS;
-import controllers.autoSubgoalMCTS.RewardGames.RewardGame;
 import controllers.autoSubgoalMCTS.SubgoalPredicates.PositionGridPredicate;
 import controllers.autoSubgoalMCTS.SubgoalSearch.MCTSNoveltySearch.MCTSNoveltySearch;
 import controllers.autoSubgoalMCTS.SubgoalSearch.RandomPredicateSearch.RandomPredicateSearch;
@@ -85,7 +84,8 @@ public class Optimization extends Exec
                         m_game.tick(action);
 
                         // Track stats
-                        fmCallsSum += RewardGame.getCalls();
+                        if(m_controller instanceof AbstractController)
+                            fmCallsSum += ((AbstractController) m_controller).getForwardCalls();
                         msPerActionSum += end - begin;
                     }
 
@@ -0,0 +1,155 @@
+package framework.core;
+
+import java.util.ArrayList;
+
+/**
+ * This class holds the list of actions executed by a ship. The list is append-only, so copies of a ship can share
+ * the same underlying buffer: a copy only remembers how many actions of the buffer belong to it. The buffer is
+ * duplicated only when two histories that share it diverge (copy-on-write), which makes getCopy() O(1) regardless
+ * of the length of the game.
+ */
+public class ActionHistory
+{
+    /**
+     * Initial capacity of a new buffer.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Storage shared between an action history and its copies.
+     */
+    private static class Buffer
+    {
+        /**
+         * Actions stored so far. Positions below m_size are never modified again.
+         */
+        volatile int[] m_data;
+
+        /**
+         * Number of positions of m_data in use.
+         */
+        int m_size;
+
+        /**
+         * Creates a buffer with the given capacity.
+         * @param a_capacity initial capacity of the buffer.
+         */
+        Buffer(int a_capacity)
+        {
+            m_data = new int[a_capacity];
+            m_size = 0;
+        }
+    }
+
+    /**
+     * Buffer this history reads from and appends to.
+     */
+    private Buffer m_buffer;
+
+    /**
+     * Number of actions of the buffer that belong to this history.
+     */
+    private int m_length;
+
+    /**
+     * Creates an empty action history.
+     */
+    public ActionHistory()
+    {
+        m_buffer = new Buffer(INITIAL_CAPACITY);
+        m_length = 0;
+    }
+
+    /**
+     * Private constructor, only for getCopy()
+     * @param a_buffer buffer to share.
+     * @param a_length number of actions of the buffer that belong to the new history.
+     */
+    private ActionHistory(Buffer a_buffer, int a_length)
+    {
+        m_buffer = a_buffer;
+        m_length = a_length;
+    }
+
+    /**
+     * Adds a new action at the end of the history.
+     * @param a_action action to add.
+     */
+    public void add(int a_action)
+    {
+        Buffer buffer = m_buffer;
+        synchronized (buffer)
+        {
+            if(m_length == buffer.m_size)
+            {
+                //We own the end of the buffer, append in place.
+                if(buffer.m_size == buffer.m_data.length)
+                    buffer.m_data = grow(buffer.m_data, buffer.m_size);
+                buffer.m_data[buffer.m_size++] = a_action;
+                m_length++;
+                return;
+            }
+        }
+
+        //Another history appended to the shared buffer after we were copied: take a private copy of our prefix.
+        Buffer own = new Buffer(Math.max(INITIAL_CAPACITY, 2 * m_length));
+        System.arraycopy(buffer.m_data, 0, own.m_data, 0, m_length);
+        own.m_size = m_length;
+        own.m_data[own.m_size++] = a_action;
+        m_buffer = own;
+        m_length++;
+    }
+
+    /**
+     * Gets the action executed at the given position.
+     * @param a_index position of the action.
+     * @return the action executed at the given position.
+     */
+    public int get(int a_index)
+    {
+        if(a_index < 0 || a_index >= m_length)
+            throw new IndexOutOfBoundsException("Index: " + a_index + ", Size: " + m_length);
+        return m_buffer.m_data[a_index];
+    }
+
+    /**
+     * Returns the number of actions in the history.
+     * @return the number of actions in the history.
+     */
+    public int size() {return m_length;}
+
+    /**
+     * Builds a list with all the actions of the history.
+     * @return a new list with all the actions of the history.
+     */
+    public ArrayList<Integer> toList()
+    {
+        int[] data = m_buffer.m_data;
+        ArrayList<Integer> list = new ArrayList<Integer>(m_length);
+        for(int i = 0; i < m_length; ++i)
+            list.add(data[i]);
+        return list;
+    }
+
+    /**
+     * Gets a copy of the history. The copy shares the actions executed so far with this history.
+     * @return the copy of the history.
+     */
+    public ActionHistory getCopy()
+    {
+        return new ActionHistory(m_buffer, m_length);
+    }
+
+    /**
+     * Creates a bigger array holding the first a_size elements of a_data.
+     * @param a_data array to grow.
+     * @param a_size number of elements to keep.
+     * @return the new array.
+     */
+    private static int[] grow(int[] a_data, int a_size)
+    {
+        int[] grown = new int[2 * a_data.length];
+        System.arraycopy(a_data, 0, grown, 0, a_size);
+        return grown;
+    }
+}
@@ -68,10 +68,20 @@ public class Game
     private boolean m_gameEnded;
 
     /**
-     * List of waypoints in the map.
+     * List of waypoints in the map. In copies of the game, it is only built when requested (see getWaypoints()).
      */
     private ArrayList<Waypoint> m_waypoints;
 
+    /**
+     * Positions of the waypoints and grid to find them. Built on demand and shared with copies.
+     */
+    private WaypointLayout m_waypointLayout;
+
+    /**
+     * Bitset with the waypoints collected, indexed as m_waypoints.
+     */
+    private long[] m_collected;
+
     /**
      * Order of waypoints visited so far.
      */
@@ -82,7 +92,7 @@ public class Game
      */
     public Game()
     {
-        m_waypoints = new ArrayList<>();
+        m_collected = new long[0];
         m_visitOrder = new ArrayList<Integer>();
     }
 
@@ -103,6 +113,7 @@ public class Game
 
         //List of waypoints of the map.
         m_waypoints = new ArrayList<>();
+        m_collected = new long[0];
 
         //Order of visits.
         m_visitOrder = new ArrayList<Integer>();
@@ -143,6 +154,7 @@ public class Game
 
         //List of waypoints of the map.
         m_waypoints = new ArrayList<>();
+        m_collected = new long[0];
 
         //Copy the waypoints.
         for(int i = 0; i < wayPoints.size(); ++i)
@@ -183,6 +195,7 @@ public class Game
 
         //List of waypoints of the map.
         m_waypoints = new ArrayList<>();
+        m_collected = new long[0];
 
         //Create and read the map.
         if(m_maps == null)
@@ -212,13 +225,23 @@ public class Game
 
     public void tickRandom(int action)
     {
-        if(AbstractController.rng.nextDouble() < randomActionProbability)
+        tickRandom(action, AbstractController.rng);
+    }
+
+    /**
+     * Updates the game, replacing the move by a random one with probability randomActionProbability.
+     * @param a_shipMove Move to execute.
+     * @param a_rng Random number generator to draw the random moves from.
+     */
+    public void tickRandom(int a_shipMove, Random a_rng)
+    {
+        if(a_rng.nextDouble() < randomActionProbability)
         {
-            tick(AbstractController.rng.nextInt(Controller.NUM_ACTIONS));
+            tick(a_rng.nextInt(Controller.NUM_ACTIONS));
         }
         else
         {
-            tick(action);
+            tick(a_shipMove);
         }
     }
 
@@ -271,9 +294,10 @@ public class Game
         String routeFile = getSaveFilename();
         try {
             PrintWriter out = new PrintWriter(new FileWriter(routeFile));
-            out.println(m_ship.getActionList().size());
-            for (int i = 0; i < m_ship.getActionList().size(); i++) {
-                out.println(m_ship.getActionList().get(i));
+            ActionHistory actions = m_ship.getActionHistory();
+            out.println(actions.size());
+            for (int i = 0; i < actions.size(); i++) {
+                out.println(actions.get(i));
             }
             out.close();
             System.out.println("Route saved to: " + routeFile);
@@ -292,9 +316,10 @@ public class Game
     {
         try {
             PrintWriter out = new PrintWriter(new FileWriter(filename));
-            out.println(m_ship.getActionList().size());
-            for (int i = 0; i < m_ship.getActionList().size(); i++) {
-                out.println(m_ship.getActionList().get(i));
+            ActionHistory actions = m_ship.getActionHistory();
+            out.println(actions.size());
+            for (int i = 0; i < actions.size(); i++) {
+                out.println(actions.get(i));
             }
             out.close();
             System.out.println("Route saved to: " + filename);
@@ -337,7 +362,7 @@ public class Game
      */
     public int getWaypointsVisited()
     {
-        return (m_waypoints.size() - getWaypointsLeft());
+        return (getNumWaypoints() - getWaypointsLeft());
     }
 
     /**
@@ -364,7 +389,33 @@ public class Game
      */
     public void addWaypoint(Waypoint a_way)
     {
-        m_waypoints.add(a_way);
+        ArrayList<Waypoint> waypoints = getWaypoints();
+        a_way.m_game = this;
+        a_way.m_index = waypoints.size();
+        waypoints.add(a_way);
+        m_waypointLayout = null;
+
+        if(m_collected.length * 64 < waypoints.size())
+            m_collected = Arrays.copyOf(m_collected, m_collected.length + 1);
+    }
+
+    /**
+     * Marks a waypoint as collected. Does not update the counters of the game (see waypointCollected()).
+     * @param a_index Index in the array list of waypoints of the waypoint collected.
+     */
+    void setWaypointCollected(int a_index)
+    {
+        m_collected[a_index >>> 6] |= 1L << a_index;
+    }
+
+    /**
+     * Indicates if a waypoint has been collected.
+     * @param a_index Index in the array list of waypoints of the waypoint.
+     * @return true if the waypoint has been collected.
+     */
+    public boolean isWaypointCollected(int a_index)
+    {
+        return (m_collected[a_index >>> 6] & (1L << a_index)) != 0;
     }
 
     /***** GETTERS AND SETTERS ****/
@@ -393,10 +444,53 @@ public class Game
     public Ship getShip() {return m_ship;}
 
     /**
-     * Gets all the waypoints of the map.
+     * Gets all the waypoints of the map. In copies of the game, the list is built the first time it is requested.
      * @return all the waypoints of the map.
      */
-    public ArrayList<Waypoint> getWaypoints() {return m_waypoints;}
+    public ArrayList<Waypoint> getWaypoints()
+    {
+        if(m_waypoints == null)
+        {
+            m_waypoints = new ArrayList<>();
+            if(m_waypointLayout != null)
+            {
+                for(int i = 0; i < m_waypointLayout.getNumWaypoints(); ++i)
+                {
+                    Waypoint way = new Waypoint(this, new Vector2d(m_waypointLayout.getX(i), m_waypointLayout.getY(i)));
+                    way.radius = m_waypointLayout.getRadius(i);
+                    way.m_index = i;
+                    m_waypoints.add(way);
+                }
+            }
+        }
+        return m_waypoints;
+    }
+
+    /**
+     * Returns the number of waypoints of the map.
+     * @return the number of waypoints of the map.
+     */
+    public int getNumWaypoints()
+    {
+        return m_waypoints != null ? m_waypoints.size() : m_waypointLayout.getNumWaypoints();
+    }
+
+    /**
+     * Gets the positions of the waypoints of the game, building them if the waypoints changed.
+     * @return the positions of the waypoints of the game.
+     */
+    public WaypointLayout getWaypointLayout()
+    {
+        if(m_waypointLayout == null)
+            m_waypointLayout = new WaypointLayout(getWaypoints(), m_size.width, m_size.height);
+        return m_waypointLayout;
+    }
+
+    /**
+     * Gets the grid over the waypoints of the game, building it if the waypoints changed.
+     * @return the grid over the waypoints of the game.
+     */
+    public WaypointGrid getWaypointGrid() {return getWaypointLayout().getGrid();}
 
     /**
      * Returns the number of waypoints yet to be collected.
@@ -476,22 +570,41 @@ public class Game
      * @return a copy of the game.
      */
     public Game getCopy()
+    {
+        return getCopy(m_ship.isRecordingActions());
+    }
+
+    /**
+     * Gets a copy of the game state to be used in simulations (forward model). The copy does not record the actions
+     * executed on it, so getActionList() of its ship only returns the actions executed before the copy was made.
+     * @return a copy of the game.
+     */
+    public Game getSimulationCopy()
+    {
+        return getCopy(false);
+    }
+
+    /**
+     * Gets a copy of the game state.
+     * @param a_recordActions indicates if the copy records the actions executed on it.
+     * @return a copy of the game.
+     */
+    private Game getCopy(boolean a_recordActions)
     {
         Game copied = new Game();
 
         copied.setSize(new Dimension(m_size.width, m_size.height));
-        copied.setShip(m_ship.getCopy(copied));
+        copied.setShip(m_ship.getCopy(copied, a_recordActions));
         copied.setStepsLeft(m_stepsLeft);
         copied.setTotalTime(m_totalTime);
         copied.setStarted(m_started);
         copied.setWaypointsLeft(m_waypointsLeft);
 
-        //Copy waypoints
-        for(Waypoint way : m_waypoints)
-        {
-            copied.addWaypoint(way.getCopy(copied));
-        }
-        
+        //Waypoints never move, so the copy shares their positions and only copies which ones are collected.
+        copied.m_waypointLayout = getWaypointLayout();
+        copied.m_collected = m_collected.clone();
+
+
         //Copy visit order
         for(Integer i : m_visitOrder)
         {
@@ -500,9 +613,63 @@ public class Game
         return copied;
     }
 
+    /**
+     * Writes the state of the game into a snapshot, reusing the arrays of the snapshot.
+     * @param a_state snapshot to write to.
+     */
+    public void copyInto(GameState a_state)
+    {
+        m_ship.copyInto(a_state);
+
+        double[] values = a_state.m_values;
+        values[GameState.STEPS_LEFT] = m_stepsLeft;
+        values[GameState.TOTAL_TIME] = m_totalTime;
+        values[GameState.WAYPOINTS_LEFT] = m_waypointsLeft;
+        values[GameState.GAME_STARTED] = m_started ? 1 : 0;
+
+        //Collected waypoints
+        a_state.ensureWaypoints(m_collected.length * 64);
+        long[] collected = a_state.m_collected;
+        System.arraycopy(m_collected, 0, collected, 0, m_collected.length);
+        for(int i = m_collected.length; i < collected.length; ++i)
+            collected[i] = 0;
+
+        //Visit order
+        a_state.ensureVisits(m_visitOrder.size());
+        for(int i = 0; i < m_visitOrder.size(); ++i)
+            a_state.m_visitOrder[i] = m_visitOrder.get(i);
+        a_state.m_numVisited = m_visitOrder.size();
+    }
+
+    /**
+     * Sets the state of this game to the one stored in a snapshot, without creating new objects. The snapshot must
+     * come from a game with the same map and waypoints (for example, this game or a copy of it). As with getCopy(),
+     * the end of the game is checked again on the next tick.
+     * @param a_state snapshot to read from.
+     */
+    public void restoreFrom(GameState a_state)
+    {
+        m_ship.restoreFrom(a_state);
+
+        double[] values = a_state.m_values;
+        m_stepsLeft = (int) values[GameState.STEPS_LEFT];
+        m_totalTime = (int) values[GameState.TOTAL_TIME];
+        m_waypointsLeft = (int) values[GameState.WAYPOINTS_LEFT];
+        m_started = values[GameState.GAME_STARTED] != 0;
+        m_gameEnded = false;
+
+        System.arraycopy(a_state.m_collected, 0, m_collected, 0, m_collected.length);
+
+        m_visitOrder.clear();
+        for(int i = 0; i < a_state.m_numVisited; ++i)
+            m_visitOrder.add(a_state.m_visitOrder[i]);
+    }
+
     public void randomizeWaypoints(int numWaypoints, Random rng)
     {
-        m_waypoints.clear();
+        getWaypoints().clear();
+        m_waypointLayout = null;
+        m_collected = new long[0];
         for(int i =0; i < numWaypoints; i++)
         {
             int xPos = rng.nextInt(getMapSize().width);
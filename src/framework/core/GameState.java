@@ -0,0 +1,147 @@
+package framework.core;
+
+/**
+ * Compact snapshot of the dynamic state of a game: position, velocity and orientation of the ship, counters of the game
+ * and the waypoints collected so far. The snapshot is kept in primitive arrays, so taking it (Game.copyInto()) and
+ * writing it back into a game (Game.restoreFrom()) do not allocate new objects once the arrays have grown to the
+ * size of the game. This allows simulations to reuse the same game object instead of creating a copy per simulation.
+ * A snapshot can only be restored into a game played on the same map and with the same waypoints as the original.
+ */
+public class GameState
+{
+    /**
+     * Indexes of the values of the snapshot in m_values.
+     */
+    static final int SHIP_X = 0;
+    static final int SHIP_Y = 1;
+    static final int SHIP_PREV_X = 2;
+    static final int SHIP_PREV_Y = 3;
+    static final int SHIP_VEL_X = 4;
+    static final int SHIP_VEL_Y = 5;
+    static final int SHIP_DIR_X = 6;
+    static final int SHIP_DIR_Y = 7;
+    static final int SHIP_STARTED = 8;
+    static final int SHIP_COLLISION = 9;
+    static final int SHIP_HEADING = 10;
+    static final int STEPS_LEFT = 11;
+    static final int TOTAL_TIME = 12;
+    static final int WAYPOINTS_LEFT = 13;
+    static final int GAME_STARTED = 14;
+
+    /**
+     * Number of values of the snapshot.
+     */
+    static final int NUM_VALUES = 15;
+
+    /**
+     * Values of the ship and the game (flags and counters are stored as doubles).
+     */
+    double[] m_values;
+
+    /**
+     * Bitset with the waypoints collected, indexed as in Game.getWaypoints().
+     */
+    long[] m_collected;
+
+    /**
+     * Order of waypoints visited so far.
+     */
+    int[] m_visitOrder;
+
+    /**
+     * Number of waypoints in m_visitOrder.
+     */
+    int m_numVisited;
+
+    /**
+     * Actions executed by the ship (shared, the history is copy-on-write).
+     */
+    ActionHistory m_actionHistory;
+
+    /**
+     * Indicates if the ship of the game was recording its actions.
+     */
+    boolean m_recordActions;
+
+    /**
+     * Creates an empty snapshot. Call Game.copyInto() to fill it.
+     */
+    public GameState()
+    {
+        m_values = new double[NUM_VALUES];
+        m_collected = new long[1];
+        m_visitOrder = new int[8];
+        m_numVisited = 0;
+    }
+
+    /**
+     * Copies this snapshot into another one, reusing its arrays if they are big enough.
+     * @param a_target snapshot to write to.
+     */
+    public void copyInto(GameState a_target)
+    {
+        System.arraycopy(m_values, 0, a_target.m_values, 0, NUM_VALUES);
+
+        a_target.ensureWaypoints(m_collected.length * 64);
+        System.arraycopy(m_collected, 0, a_target.m_collected, 0, m_collected.length);
+        for(int i = m_collected.length; i < a_target.m_collected.length; ++i)
+            a_target.m_collected[i] = 0;
+
+        a_target.ensureVisits(m_numVisited);
+        System.arraycopy(m_visitOrder, 0, a_target.m_visitOrder, 0, m_numVisited);
+        a_target.m_numVisited = m_numVisited;
+
+        a_target.m_actionHistory = m_actionHistory;
+        a_target.m_recordActions = m_recordActions;
+    }
+
+    /**
+     * Indicates if the waypoint with the given index was collected in the snapshot.
+     * @param a_index index of the waypoint in Game.getWaypoints().
+     * @return true if the waypoint was collected.
+     */
+    public boolean isCollected(int a_index)
+    {
+        int word = a_index >>> 6;
+        return word < m_collected.length && (m_collected[word] & (1L << a_index)) != 0;
+    }
+
+    /**
+     * Gets the x coordinate of the ship in the snapshot.
+     * @return the x coordinate of the ship.
+     */
+    public double getShipX() {return m_values[SHIP_X];}
+
+    /**
+     * Gets the y coordinate of the ship in the snapshot.
+     * @return the y coordinate of the ship.
+     */
+    public double getShipY() {return m_values[SHIP_Y];}
+
+    /**
+     * Returns the number of waypoints yet to be collected in the snapshot.
+     * @return the number of waypoints yet to be collected.
+     */
+    public int getWaypointsLeft() {return (int) m_values[WAYPOINTS_LEFT];}
+
+    /**
+     * Makes sure the bitset of collected waypoints can hold the given number of waypoints.
+     * @param a_numWaypoints number of waypoints.
+     */
+    void ensureWaypoints(int a_numWaypoints)
+    {
+        int words = (a_numWaypoints + 63) >>> 6;
+        if(m_collected.length < words)
+            m_collected = new long[words];
+    }
+
+    /**
+     * Makes sure the visit order can hold the given number of waypoints.
+     * @param a_numVisited number of waypoints visited.
+     */
+    void ensureVisits(int a_numVisited)
+    {
+        if(m_visitOrder.length < a_numVisited)
+            m_visitOrder = new int[Math.max(a_numVisited, 2 * m_visitOrder.length)];
+    }
+}
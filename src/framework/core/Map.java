@@ -36,11 +36,48 @@ public class Map extends JComponent
      */
     public static final char NIL = '.';
 
+    /**
+     * Collision type of a free position of the map.
+     */
+    public static final int COLLISION_NONE = 0;
+
+    /**
+     * Collision type of a position where the ship bounces vertically (includes the outside of the map).
+     */
+    public static final int COLLISION_UP_DOWN = 1;
+
+    /**
+     * Collision type of a position where the ship bounces horizontally.
+     */
+    public static final int COLLISION_LEFT_RIGHT = 2;
+
     /**
      * Array with all the elements of the map.
      */
     private char m_mapChar[][];
 
+    /**
+     * Packed bitset with the obstacles of the map, indexed by x * (number of rows) + y. Precomputed from m_mapChar.
+     */
+    private long[] m_obstacles;
+
+    /**
+     * Collision type (COLLISION_NONE, COLLISION_UP_DOWN or COLLISION_LEFT_RIGHT) of each position of the map,
+     * indexed as m_obstacles. Precomputed from m_mapChar.
+     */
+    private byte[] m_collisionType;
+
+    /**
+     * Distance, in pixels and rounded down, from each position of the map to the closest obstacle or to the outside of
+     * the map (capped at MAX_CLEARANCE), indexed as m_obstacles. Precomputed from m_mapChar.
+     */
+    private byte[] m_clearance;
+
+    /**
+     * Maximum value stored in m_clearance.
+     */
+    public static final int MAX_CLEARANCE = 127;
+
     /**
      * Height, in pixels, of the map.
      */
@@ -129,6 +166,7 @@ public class Map extends JComponent
 
         m_mapChar[(int) m_startingPoint.x][(int)m_startingPoint.y] = Map.START;
 
+        precomputeCollisions();
     }
 
     /**
@@ -186,6 +224,8 @@ public class Map extends JComponent
 
             ++x;
         }
+
+        precomputeCollisions();
     }
 
     /**
@@ -212,6 +252,160 @@ public class Map extends JComponent
         }
     }
 
+    /**
+     * Builds the obstacle bitset, the collision type and the clearance of every position of the map from m_mapChar.
+     * It is called when the map is read or set, and must be called again if the array returned by getMapChar() is
+     * modified.
+     */
+    public void precomputeCollisions()
+    {
+        int width = m_mapChar.length;
+        int height = m_mapChar[0].length;
+        m_obstacles = new long[(width * height + 63) >>> 6];
+        m_collisionType = new byte[width * height];
+        for(int i = 0; i < width; ++i)
+        {
+            for(int j = 0; j < height; ++j)
+            {
+                if(isObstacle(m_mapChar[i][j]))
+                {
+                    int index = i * height + j;
+                    m_obstacles[index >>> 6] |= 1L << index;
+                    m_collisionType[index] = (byte) (isCollisionUpDown(i, j) ? COLLISION_UP_DOWN : COLLISION_LEFT_RIGHT);
+                }
+            }
+        }
+
+        computeClearance();
+    }
+
+    /**
+     * Computes the exact euclidean distance transform of the map (Felzenszwalb and Huttenlocher), with the positions
+     * around the map considered obstacles, and stores it in m_clearance.
+     */
+    private void computeClearance()
+    {
+        int width = m_mapChar.length;
+        int height = m_mapChar[0].length;
+        int paddedWidth = width + 2;
+        int paddedHeight = height + 2;
+        double infinity = 1e20;
+
+        //Squared distances on the map with a border of obstacles.
+        double[] sqDist = new double[paddedWidth * paddedHeight];
+        for(int i = 0; i < paddedWidth; ++i)
+        {
+            for(int j = 0; j < paddedHeight; ++j)
+            {
+                boolean border = i == 0 || j == 0 || i == paddedWidth - 1 || j == paddedHeight - 1;
+                boolean obstacle = border || isObstacle(i - 1, j - 1);
+                sqDist[i * paddedHeight + j] = obstacle ? 0 : infinity;
+            }
+        }
+
+        int length = Math.max(paddedWidth, paddedHeight);
+        double[] f = new double[length];
+        double[] d = new double[length];
+        double[] z = new double[length + 1];
+        int[] v = new int[length];
+
+        //Columns first, then rows.
+        for(int i = 0; i < paddedWidth; ++i)
+        {
+            for(int j = 0; j < paddedHeight; ++j)
+                f[j] = sqDist[i * paddedHeight + j];
+            distanceTransform1D(f, paddedHeight, d, v, z);
+            for(int j = 0; j < paddedHeight; ++j)
+                sqDist[i * paddedHeight + j] = d[j];
+        }
+        for(int j = 0; j < paddedHeight; ++j)
+        {
+            for(int i = 0; i < paddedWidth; ++i)
+                f[i] = sqDist[i * paddedHeight + j];
+            distanceTransform1D(f, paddedWidth, d, v, z);
+            for(int i = 0; i < paddedWidth; ++i)
+                sqDist[i * paddedHeight + j] = d[i];
+        }
+
+        m_clearance = new byte[width * height];
+        for(int i = 0; i < width; ++i)
+        {
+            for(int j = 0; j < height; ++j)
+            {
+                double distance = Math.sqrt(sqDist[(i + 1) * paddedHeight + (j + 1)]);
+                m_clearance[i * height + j] = (byte) Math.min(MAX_CLEARANCE, (int) distance);
+            }
+        }
+    }
+
+    /**
+     * One dimensional squared euclidean distance transform, as the lower envelope of parabolas.
+     * @param a_f squared distances of the positions of the line (0 for obstacles).
+     * @param a_n number of positions of the line.
+     * @param a_d output array with the transformed squared distances.
+     * @param a_v buffer for the positions of the parabolas of the envelope.
+     * @param a_z buffer for the boundaries between the parabolas of the envelope.
+     */
+    private static void distanceTransform1D(double[] a_f, int a_n, double[] a_d, int[] a_v, double[] a_z)
+    {
+        int k = 0;
+        a_v[0] = 0;
+        a_z[0] = Double.NEGATIVE_INFINITY;
+        a_z[1] = Double.POSITIVE_INFINITY;
+        for(int q = 1; q < a_n; ++q)
+        {
+            double s = ((a_f[q] + q * q) - (a_f[a_v[k]] + a_v[k] * a_v[k])) / (2.0 * q - 2.0 * a_v[k]);
+            while(s <= a_z[k])
+            {
+                k--;
+                s = ((a_f[q] + q * q) - (a_f[a_v[k]] + a_v[k] * a_v[k])) / (2.0 * q - 2.0 * a_v[k]);
+            }
+            k++;
+            a_v[k] = q;
+            a_z[k] = s;
+            a_z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+
+        k = 0;
+        for(int q = 0; q < a_n; ++q)
+        {
+            while(a_z[k + 1] < q)
+                k++;
+            double delta = q - a_v[k];
+            a_d[q] = delta * delta + a_f[a_v[k]];
+        }
+    }
+
+    /**
+     * Gets the distance from a point of the map to the closest obstacle or to the outside of the map.
+     * @param a_x x coordinate
+     * @param a_y y coordinate.
+     * @return the euclidean distance, in pixels and rounded down, to the closest obstacle (at most MAX_CLEARANCE).
+     * Positions outside the map and obstacles return 0.
+     */
+    public int getClearance(int a_x, int a_y)
+    {
+        int height = m_mapChar[0].length;
+        if(a_x < 0 || a_x >= m_mapChar.length || a_y < 0 || a_y >= height)
+            return 0;
+        return m_clearance[a_x * height + a_y];
+    }
+
+    /**
+     * Gets the type of collision of a point of the map, with a single lookup.
+     * @param a_x x coordinate
+     * @param a_y y coordinate.
+     * @return the type of collision (COLLISION_NONE, COLLISION_UP_DOWN or COLLISION_LEFT_RIGHT). Positions outside the
+     * map are COLLISION_UP_DOWN.
+     */
+    public int getCollisionType(int a_x, int a_y)
+    {
+        int height = m_mapChar[0].length;
+        if(a_x < 0 || a_x >= m_mapChar.length || a_y < 0 || a_y >= height)
+            return COLLISION_UP_DOWN;
+        return m_collisionType[a_x * height + a_y];
+    }
+
     /**
      * Checks if the given point is outside the bounds of the map.
      * @param a_x x ccoordinate
@@ -231,8 +425,8 @@ public class Map extends JComponent
      */
     public boolean isObstacle(int a_x, int a_y)
     {
-        char inMap = m_mapChar[a_x][a_y];
-        return isObstacle(inMap);
+        int index = a_x * m_mapChar[0].length + a_y;
+        return (m_obstacles[index >>> 6] & (1L << index)) != 0;
     }
 
     /**
@@ -397,7 +591,11 @@ public class Map extends JComponent
      * Sets the map character array.
      * @param a_mapChar the map character array.
      */
-    public void setMapChar(char[][] a_mapChar){m_mapChar = a_mapChar;}
+    public void setMapChar(char[][] a_mapChar)
+    {
+        m_mapChar = a_mapChar;
+        precomputeCollisions();
+    }
 
     /**
      * Sets the height of the map.
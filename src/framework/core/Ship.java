@@ -39,6 +39,42 @@ public class Ship extends GameObject
      */
     public final static double steerStep = Math.PI / 60;
 
+    /**
+     * Number of different orientations of the ship (2 * PI / steerStep).
+     */
+    public final static int NUM_HEADINGS = 120;
+
+    /**
+     * If true, the orientation d of the ship is read from a precomputed table indexed by the heading of the ship,
+     * instead of being rotated every step. This avoids the floating point error accumulated by the rotations, but
+     * trajectories differ slightly from the original physics, so it must be set before the game starts.
+     */
+    public static boolean useHeadingTable = false;
+
+    /**
+     * Orientation vector (x and y coordinates) for each heading index, for useHeadingTable.
+     */
+    final static double[] HEADING_X = new double[NUM_HEADINGS];
+    final static double[] HEADING_Y = new double[NUM_HEADINGS];
+
+    /**
+     * Cosine and sine of the rotation applied in one step when turning right (positive) and left (negative).
+     */
+    final static double COS_RIGHT = Math.cos(steerStep);
+    final static double SIN_RIGHT = Math.sin(steerStep);
+    final static double COS_LEFT = Math.cos(-steerStep);
+    final static double SIN_LEFT = Math.sin(-steerStep);
+
+    static
+    {
+        //Heading 0 is the initial orientation (0, -1), rotated by steerStep for each index.
+        for(int i = 0; i < NUM_HEADINGS; ++i)
+        {
+            HEADING_X[i] = Math.sin(i * steerStep);
+            HEADING_Y[i] = -Math.cos(i * steerStep);
+        }
+    }
+
     /**
      *  Friction value of the ship.
      */
@@ -57,7 +93,12 @@ public class Ship extends GameObject
     /**
      * List of all the actions executed so far(to save replies)
      */
-    private ArrayList<Integer> m_actionList;
+    private ActionHistory m_actionList;
+
+    /**
+     * Indicates if the actions executed are added to m_actionList. Disabled in simulation copies.
+     */
+    private boolean m_recordActions;
 
     /**
      * Next action to be executed.
@@ -85,6 +126,11 @@ public class Ship extends GameObject
      */
     private int m_turning;
 
+    /**
+     * Heading of the ship: number of steps rotated from the initial orientation, modulo NUM_HEADINGS.
+     */
+    private int m_heading;
+
     /**
      * Indicates if there was a collision in previous step.
      */
@@ -115,13 +161,20 @@ public class Ship extends GameObject
      */
     private Vector2d m_collPotentialSphere[];
 
+    /**
+     * Minimum clearance (see Map.getClearance()) around the center of the collision sphere that guarantees that none of
+     * its points hits an obstacle: the sphere radius plus the rounding of both the center and the points.
+     */
+    private double m_collSphereReach;
+
 
     /**
      * Private constructor, only for getCopy()
      */
     private Ship()
     {
-        m_actionList = new ArrayList<Integer>();
+        m_potentialPosition = new Vector2d();
+        m_potentialSpeed = new Vector2d();
     }
 
     /**
@@ -135,9 +188,12 @@ public class Ship extends GameObject
         s = new Vector2d(a_startPos);
         ps = s.copy();
         v = new Vector2d(0,0);
+        m_potentialPosition = s.copy();
+        m_potentialSpeed = new Vector2d(0,0);
         d = new Vector2d(0, -1);
         this.radius = SHIP_RADIUS;
-        m_actionList = new ArrayList<Integer>();
+        m_actionList = new ActionHistory();
+        m_recordActions = true;
         m_collisionLastStep = false;
         m_nextMove = Controller.ACTION_NO_FRONT;
 
@@ -157,6 +213,7 @@ public class Ship extends GameObject
 
         m_collSphereRelative[0] = d.copy();
         m_collSphereRelative[0].mul(1.5*radius);
+        m_collSphereReach = 1.5*radius + 2;
         m_collSphere[0] = new Vector2d();
         m_collPotentialSphere[0] = new Vector2d();
         for(int i = 1; i < m_collSphereRelative.length; ++i)
@@ -203,7 +260,8 @@ public class Ship extends GameObject
     }
 
     /**
-     * Updates position and manages collisions.
+     * Updates position and manages collisions. The vectors of the ship (s, ps, v, d) are updated in place, so no new
+     * objects are created in each step.
      * @param a_actionId Action to execute.
      */
     public void update(int a_actionId)
@@ -219,13 +277,13 @@ public class Ship extends GameObject
                 return;
         }
 
-        ps = s.copy();
-        m_potentialPosition = s.copy();
-        m_potentialSpeed = v.copy();
+        ps.set(s);
+        m_potentialPosition.set(s);
+        m_potentialSpeed.set(v);
         m_thrusting = Controller.getThrust(a_actionId);
         m_turning = Controller.getTurning(a_actionId);
 
-        d.rotate(m_turning * steerStep);
+        rotate(m_turning);
         if(m_thrusting)
             m_potentialSpeed.add(d, PTSPConstants.T * 0.05 / 2);
         m_potentialSpeed.mul(loss);
@@ -235,10 +293,15 @@ public class Ship extends GameObject
         //Update the potential position of the collision sphere
         updateCollPotentialSphere();
 
+        //Broad phase: far enough from any obstacle, none of the points of the sphere can collide.
+        int xRound = (int)Math.round(m_potentialPosition.x);
+        int yRound = (int)Math.round(m_potentialPosition.y);
+        boolean inOpenSpace = m_game.getMap().getClearance(xRound, yRound) > m_collSphereReach;
+
         //Check for map boundaries:
         checkBoundaries();
 
-        int coll = checkCollisions();
+        int coll = inOpenSpace ? 0 : checkCollisions();
         if(coll != 0)
         {
             //There is collision
@@ -255,8 +318,8 @@ public class Ship extends GameObject
         //Check for collisions
         if(!m_collisionLastStep)
         {
-            s = m_potentialPosition.copy();
-            v = m_potentialSpeed.copy();
+            s.set(m_potentialPosition);
+            v.set(m_potentialSpeed);
 
             //Update the position of the collision sphere
             updateCollSphere();
@@ -264,18 +327,22 @@ public class Ship extends GameObject
 
 
         //Add the action to the list of actions.
-        m_actionList.add(a_actionId);
+        if(m_recordActions)
+            m_actionList.add(a_actionId);
 
-        //Check for visited waypoints.
-        for(int i=0; i < m_game.getWaypoints().size(); ++i)
+        //Check for visited waypoints (only the ones that can be reached from the cell of the ship).
+        WaypointLayout waypoints = m_game.getWaypointLayout();
+        int[] candidates = waypoints.getGrid().getCandidates(this.s.x, this.s.y);
+        for(int c = 0; c < candidates.length; ++c)
         {
-            Waypoint way = m_game.getWaypoints().get(i);
-            if(!way.collected)
+            int i = candidates[c];
+            if(!m_game.isWaypointCollected(i))
             {
-                boolean collected = way.checkCollected(this.s, this.radius);
+                boolean collected = waypoints.checkCollected(i, this.s.x, this.s.y, this.radius);
                 if(collected)
                 {
-                    way.setCollected(true);
+                    m_game.setWaypointCollected(i);
+                    m_game.waypointCollected();
                     m_game.addCollected(i);
                 }
             }
@@ -283,6 +350,31 @@ public class Ship extends GameObject
 
     }
 
+    /**
+     * Rotates the orientation of the ship one step, without computing sines and cosines.
+     * @param a_turning direction of the rotation (-1: left, 0: none, 1: right).
+     */
+    private void rotate(int a_turning)
+    {
+        if(a_turning == 0)
+            return;
+
+        m_heading = (m_heading + a_turning + NUM_HEADINGS) % NUM_HEADINGS;
+        if(useHeadingTable)
+        {
+            d.set(HEADING_X[m_heading], HEADING_Y[m_heading]);
+        }
+        else
+        {
+            //Same operations as Vector2d.rotate(), with precomputed values.
+            double cosTheta = a_turning > 0 ? COS_RIGHT : COS_LEFT;
+            double sinTheta = a_turning > 0 ? SIN_RIGHT : SIN_LEFT;
+            double nx = d.x * cosTheta - d.y * sinTheta;
+            double ny = d.x * sinTheta + d.y * cosTheta;
+            d.set(nx, ny);
+        }
+    }
+
     /**
      * Checks the boundaries of the map
      */
@@ -319,13 +411,27 @@ public class Ship extends GameObject
             int collision = checkCollInPos(v);
             if(collision != 0)
             {
-                Vector2d vToColl = v.subtract(m_potentialPosition);
-                vToColl.normalise();
-                Vector2d velocity = m_potentialSpeed.copy();
-                velocity.normalise();
+                //Same operations as Vector2d.normalise(), but on local copies to avoid creating new vectors.
+                double toCollX = v.x - m_potentialPosition.x;
+                double toCollY = v.y - m_potentialPosition.y;
+                double toCollMag = Math.sqrt(toCollX * toCollX + toCollY * toCollY);
+                if(Math.abs(toCollMag) >= 0.0001)
+                {
+                    toCollX /= toCollMag;
+                    toCollY /= toCollMag;
+                }
+
+                double velocityX = m_potentialSpeed.x;
+                double velocityY = m_potentialSpeed.y;
+                double velocityMag = Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+                if(Math.abs(velocityMag) >= 0.0001)
+                {
+                    velocityX /= velocityMag;
+                    velocityY /= velocityMag;
+                }
 
                 //This is to slide when in contact with walls instead of being stuck.
-                double dotProduct = velocity.dot(vToColl);
+                double dotProduct = velocityX * toCollX + velocityY * toCollY;
                 if(dotProduct > 0.5)
                     return collision;
             }
@@ -363,21 +469,8 @@ public class Ship extends GameObject
         int xRound = (int)Math.round(a_collPoint.x);
         int yRound = (int)Math.round(a_collPoint.y);
 
-        if(m_game.getMap().isOutsideBounds(xRound,yRound))
-            return 1;
-
-        if(m_game.getMap().isObstacle(xRound, yRound))
-        {
-            if(m_game.getMap().isCollisionUpDown(xRound,yRound))
-            {
-                return 1;
-            }
-            else
-            {
-                return 2;
-            }
-        }
-        return 0;
+        //Precomputed by the map: outside bounds and up/down walls are 1, left/right walls are 2.
+        return m_game.getMap().getCollisionType(xRound, yRound);
     }
 
 
@@ -433,10 +526,22 @@ public class Ship extends GameObject
     /************* Getters and Setters **********************/
 
     /**
-     * Returns all the actions executed so far.
+     * Returns all the actions executed so far. The list is built on each call, use getActionHistory() to avoid it.
      * @return all the actions executed so far.
      */
-    public ArrayList getActionList() {return m_actionList;}
+    public ArrayList getActionList() {return m_actionList.toList();}
+
+    /**
+     * Returns the history of the actions executed so far.
+     * @return the history of the actions executed so far.
+     */
+    public ActionHistory getActionHistory() {return m_actionList;}
+
+    /**
+     * Indicates if the actions executed are being recorded.
+     * @return false if this ship belongs to a simulation copy of the game.
+     */
+    public boolean isRecordingActions() {return m_recordActions;}
 
     /**
      * Returns if there was a collision in the last step.
@@ -474,6 +579,13 @@ public class Ship extends GameObject
      */
     public int turning() {return m_turning;}
 
+    /**
+     * Gets the heading of the ship, the orientation as an index in [0, NUM_HEADINGS). Unlike d, it is exact and can
+     * be used to compare or hash states.
+     * @return the heading of the ship.
+     */
+    public int getHeading() {return m_heading;}
+
 
     /**
      * Sets if the game has started.
@@ -505,18 +617,29 @@ public class Ship extends GameObject
      * @return The copy of the ship.
      */
     public Ship getCopy(Game a_game)
+    {
+        return getCopy(a_game, m_recordActions);
+    }
+
+    /**
+     * Gets a copy of the game.
+     * @param a_game A copy of the game state
+     * @param a_recordActions false to stop recording the actions executed by the copy (simulation copy).
+     * @return The copy of the ship.
+     */
+    public Ship getCopy(Game a_game, boolean a_recordActions)
     {
         Ship copied = new Ship();
 
-        for(int i = 0; i < m_actionList.size(); ++i)
-        {
-            copied.addAction(m_actionList.get(i));
-        }
+        //The history is shared with the copy, it is only duplicated if both ships keep adding actions.
+        copied.m_actionList = m_actionList.getCopy();
+        copied.m_recordActions = a_recordActions;
 
         copied.s = this.s.copy();
         copied.v = this.v.copy();
         copied.ps = this.ps.copy();
         copied.d = this.d.copy();
+        copied.m_heading = m_heading;
         copied.m_game = a_game;
         copied.radius = this.radius;
 
@@ -530,6 +653,64 @@ public class Ship extends GameObject
         return copied;
     }
 
+    /**
+     * Writes the state of the ship into a snapshot of the game.
+     * @param a_state snapshot to write to.
+     */
+    void copyInto(GameState a_state)
+    {
+        double[] values = a_state.m_values;
+        values[GameState.SHIP_X] = s.x;
+        values[GameState.SHIP_Y] = s.y;
+        values[GameState.SHIP_PREV_X] = ps.x;
+        values[GameState.SHIP_PREV_Y] = ps.y;
+        values[GameState.SHIP_VEL_X] = v.x;
+        values[GameState.SHIP_VEL_Y] = v.y;
+        values[GameState.SHIP_DIR_X] = d.x;
+        values[GameState.SHIP_DIR_Y] = d.y;
+        values[GameState.SHIP_STARTED] = m_started ? 1 : 0;
+        values[GameState.SHIP_COLLISION] = m_collisionLastStep ? 1 : 0;
+        values[GameState.SHIP_HEADING] = m_heading;
+
+        //A ship that does not record actions never modifies its history, so it can be shared as it is.
+        a_state.m_actionHistory = m_recordActions ? m_actionList.getCopy() : m_actionList;
+        a_state.m_recordActions = m_recordActions;
+    }
+
+    /**
+     * Sets the state of the ship to the one stored in a snapshot of the game, reusing the vectors of the ship.
+     * @param a_state snapshot to read from.
+     */
+    void restoreFrom(GameState a_state)
+    {
+        double[] values = a_state.m_values;
+        s.set(values[GameState.SHIP_X], values[GameState.SHIP_Y]);
+        ps.set(values[GameState.SHIP_PREV_X], values[GameState.SHIP_PREV_Y]);
+        v.set(values[GameState.SHIP_VEL_X], values[GameState.SHIP_VEL_Y]);
+        d.set(values[GameState.SHIP_DIR_X], values[GameState.SHIP_DIR_Y]);
+        m_started = values[GameState.SHIP_STARTED] != 0;
+        m_collisionLastStep = values[GameState.SHIP_COLLISION] != 0;
+        m_heading = (int) values[GameState.SHIP_HEADING];
+
+        m_actionList = a_state.m_recordActions ? a_state.m_actionHistory.getCopy() : a_state.m_actionHistory;
+        m_recordActions = a_state.m_recordActions;
+
+        //getCopy() builds the collision sphere from the current orientation, so it has to be rebuilt here as well.
+        m_collSphereRelative[0].set(d);
+        m_collSphereRelative[0].mul(1.5*radius);
+        for(int i = 1; i < m_collSphereRelative.length; ++i)
+        {
+            m_collSphereRelative[i].set(m_collSphereRelative[i-1]);
+            m_collSphereRelative[i].rotate(2.0 * Math.PI / m_collSphereRelative.length);
+        }
+
+        for(int i = 0; i < m_collSphereRelative.length; ++i)
+        {
+            m_collSphere[i].x = m_collSphereRelative[i].x + s.x;
+            m_collSphere[i].y = m_collSphereRelative[i].y + s.y;
+        }
+    }
+
     /**
      * Copies an array of positions to the collision sphere of the ship
      * @param a_collRel the array of positions.
@@ -0,0 +1,490 @@
+package framework.core;
+
+import framework.utils.Vector2d;
+
+/**
+ * Forward model that advances many copies of the same game at once. The state of each copy (ship, step counters and
+ * collected waypoints) is kept in parallel primitive arrays indexed by the copy, instead of in one Game and Ship per
+ * copy, so a whole population of action sequences can be simulated in a single loop without creating objects.
+ * All copies share the map and the waypoints of the game they were loaded from. The trajectories are the same as the
+ * ones obtained with Game.tick() on copies of the game, but the order of visit of the waypoints is not kept.
+ */
+public class ShipBatch
+{
+    /**
+     * Number of points of the collision sphere of the ships (as in Ship.createCollSphere()).
+     */
+    private static final int NUM_SPHERE_POINTS = 16;
+
+    /**
+     * Number of copies simulated.
+     */
+    private int m_numShips;
+
+    /**
+     * Position of each ship.
+     */
+    private double[] m_x, m_y;
+
+    /**
+     * Position of each ship in the previous step.
+     */
+    private double[] m_prevX, m_prevY;
+
+    /**
+     * Velocity of each ship.
+     */
+    private double[] m_vx, m_vy;
+
+    /**
+     * Orientation of each ship.
+     */
+    private double[] m_dx, m_dy;
+
+    /**
+     * Heading of each ship (see Ship.getHeading()).
+     */
+    private int[] m_heading;
+
+    /**
+     * Indicates if each ship has started to move.
+     */
+    private boolean[] m_shipStarted;
+
+    /**
+     * Indicates if there was a collision in the last step of each ship.
+     */
+    private boolean[] m_collision;
+
+    /**
+     * Indicates if each game has started.
+     */
+    private boolean[] m_started;
+
+    /**
+     * Indicates if each game has ended.
+     */
+    private boolean[] m_ended;
+
+    /**
+     * Steps left to collect the next waypoint, in each game.
+     */
+    private int[] m_stepsLeft;
+
+    /**
+     * Time spent in each game.
+     */
+    private int[] m_totalTime;
+
+    /**
+     * Waypoints left to collect in each game.
+     */
+    private int[] m_waypointsLeft;
+
+    /**
+     * Bitsets with the collected waypoints of each game, m_words consecutive words per game.
+     */
+    private long[] m_collected;
+
+    /**
+     * Number of words of the bitset of each game.
+     */
+    private int m_words;
+
+    /**
+     * Map of the game.
+     */
+    private Map m_map;
+
+    /**
+     * Positions and grid of the waypoints of the game.
+     */
+    private WaypointLayout m_waypoints;
+
+    /**
+     * Points of the collision sphere, relative to the position of the ship (the same for all ships).
+     */
+    private double[] m_sphereX, m_sphereY;
+
+    /**
+     * Distance from the center of the ship to the farthest point checked for collisions.
+     */
+    private double m_sphereReach;
+
+    /**
+     * Radius of the ships.
+     */
+    private int m_radius;
+
+    /**
+     * Creates an empty batch. Call reset() to load a game into it.
+     */
+    public ShipBatch()
+    {
+        m_numShips = 0;
+        m_words = 0;
+        m_sphereX = new double[NUM_SPHERE_POINTS];
+        m_sphereY = new double[NUM_SPHERE_POINTS];
+        allocate(0);
+    }
+
+    /**
+     * Sets all the copies of the batch to the state of a game. The arrays of the batch are reused if they are big
+     * enough. As with Game.getCopy(), the end of the game is checked again on the next tick.
+     * @param a_game game to copy.
+     * @param a_numShips number of copies to simulate.
+     */
+    public void reset(Game a_game, int a_numShips)
+    {
+        if(m_x.length < a_numShips)
+            allocate(a_numShips);
+        m_numShips = a_numShips;
+
+        m_map = a_game.getMap();
+        m_waypoints = a_game.getWaypointLayout();
+        int numWaypoints = m_waypoints.getNumWaypoints();
+        m_words = (numWaypoints + 63) >>> 6;
+        if(m_collected.length < a_numShips * m_words)
+            m_collected = new long[a_numShips * m_words];
+
+        //The collision sphere is built from the orientation of the ship, as when the ship is copied.
+        Ship ship = a_game.getShip();
+        m_radius = ship.radius;
+        Vector2d point = ship.d.copy();
+        point.mul(1.5*m_radius);
+        for(int i = 0; i < NUM_SPHERE_POINTS; ++i)
+        {
+            if(i > 0)
+                point.rotate(2.0 * Math.PI / NUM_SPHERE_POINTS);
+            m_sphereX[i] = point.x;
+            m_sphereY[i] = point.y;
+        }
+        m_sphereReach = 1.5*m_radius + 2;
+
+        for(int i = 0; i < a_numShips; ++i)
+        {
+            m_x[i] = ship.s.x;
+            m_y[i] = ship.s.y;
+            m_prevX[i] = ship.ps.x;
+            m_prevY[i] = ship.ps.y;
+            m_vx[i] = ship.v.x;
+            m_vy[i] = ship.v.y;
+            m_dx[i] = ship.d.x;
+            m_dy[i] = ship.d.y;
+            m_heading[i] = ship.getHeading();
+            m_shipStarted[i] = ship.hasStarted();
+            m_collision[i] = ship.getCollLastStep();
+            m_started[i] = a_game.hasStarted();
+            m_ended[i] = false;
+            m_stepsLeft[i] = a_game.getStepsLeft();
+            m_totalTime[i] = a_game.getTotalTime();
+            m_waypointsLeft[i] = a_game.getWaypointsLeft();
+
+            int base = i * m_words;
+            for(int w = 0; w < m_words; ++w)
+                m_collected[base + w] = 0;
+            for(int w = 0; w < numWaypoints; ++w)
+                if(a_game.isWaypointCollected(w))
+                    m_collected[base + (w >>> 6)] |= 1L << w;
+        }
+    }
+
+    /**
+     * Advances all the copies one step, as Game.tick() does.
+     * @param a_actions action to execute in each copy. Copies with a negative action are not updated.
+     */
+    public void tick(int[] a_actions)
+    {
+        for(int i = 0; i < m_numShips; ++i)
+        {
+            if(a_actions[i] < 0)
+                continue;
+
+            update(i, a_actions[i]);
+
+            //One step left to the end.
+            if(m_started[i])
+            {
+                m_stepsLeft[i]--;
+                m_totalTime[i]++;
+            }
+
+            //Check for end of the game.
+            if(m_waypointsLeft[i] == 0 || m_stepsLeft[i] <= 0)
+                m_ended[i] = true;
+        }
+    }
+
+    /**
+     * Updates position, speed and orientation of one ship and checks for collisions and collected waypoints, with
+     * the same operations as Ship.update().
+     * @param a_index index of the ship.
+     * @param a_actionId action to execute.
+     */
+    private void update(int a_index, int a_actionId)
+    {
+        if(!m_shipStarted[a_index])
+        {
+            if(a_actionId != Controller.ACTION_NO_FRONT)
+            {
+                m_shipStarted[a_index] = true;
+                m_started[a_index] = true;
+            }
+            else
+                return;
+        }
+
+        double x = m_x[a_index], y = m_y[a_index];
+        m_prevX[a_index] = x;
+        m_prevY[a_index] = y;
+
+        //Rotation
+        int turning = Controller.getTurning(a_actionId);
+        if(turning != 0)
+        {
+            int heading = (m_heading[a_index] + turning + Ship.NUM_HEADINGS) % Ship.NUM_HEADINGS;
+            m_heading[a_index] = heading;
+            if(Ship.useHeadingTable)
+            {
+                m_dx[a_index] = Ship.HEADING_X[heading];
+                m_dy[a_index] = Ship.HEADING_Y[heading];
+            }
+            else
+            {
+                double cosTheta = turning > 0 ? Ship.COS_RIGHT : Ship.COS_LEFT;
+                double sinTheta = turning > 0 ? Ship.SIN_RIGHT : Ship.SIN_LEFT;
+                double dx = m_dx[a_index], dy = m_dy[a_index];
+                m_dx[a_index] = dx * cosTheta - dy * sinTheta;
+                m_dy[a_index] = dx * sinTheta + dy * cosTheta;
+            }
+        }
+
+        //Potential speed and position
+        double speedX = m_vx[a_index], speedY = m_vy[a_index];
+        if(Controller.getThrust(a_actionId))
+        {
+            speedX += PTSPConstants.T * 0.05 / 2 * m_dx[a_index];
+            speedY += PTSPConstants.T * 0.05 / 2 * m_dy[a_index];
+        }
+        speedX *= Ship.loss;
+        speedY *= Ship.loss;
+        double posX = x + speedX;
+        double posY = y + speedY;
+
+        //The collision sphere is placed before checking the boundaries, as in Ship.update().
+        double sphereCenterX = posX, sphereCenterY = posY;
+        boolean inOpenSpace = m_map.getClearance((int)Math.round(posX), (int)Math.round(posY)) > m_sphereReach;
+
+        //Check for map boundaries:
+        int width = m_map.getMapChar().length, height = m_map.getMapChar()[0].length;
+        if(posX > width-1)
+            posX = width-1;
+        else if(posX < 0)
+            posX = 0;
+        else if(posY > height-1)
+            posY = height-1;
+        else if(posY < 0)
+            posY = 0;
+
+        int coll = inOpenSpace ? 0 : checkCollisions(sphereCenterX, sphereCenterY, posX, posY, speedX, speedY);
+        m_collision[a_index] = coll != 0;
+        if(coll != 0)
+        {
+            if(coll == 1)
+                m_vx[a_index] *= (-1);
+            else
+                m_vy[a_index] *= (-1);
+
+            m_vx[a_index] *= PTSPConstants.COLLISION_SPEED_RED;
+            m_vy[a_index] *= PTSPConstants.COLLISION_SPEED_RED;
+        }
+        else
+        {
+            m_x[a_index] = x = posX;
+            m_y[a_index] = y = posY;
+            m_vx[a_index] = speedX;
+            m_vy[a_index] = speedY;
+        }
+
+        //Check for visited waypoints.
+        int[] candidates = m_waypoints.getGrid().getCandidates(x, y);
+        int base = a_index * m_words;
+        for(int c = 0; c < candidates.length; ++c)
+        {
+            int w = candidates[c];
+            if((m_collected[base + (w >>> 6)] & (1L << w)) == 0 && m_waypoints.checkCollected(w, x, y, m_radius))
+            {
+                m_collected[base + (w >>> 6)] |= 1L << w;
+                m_stepsLeft[a_index] = PTSPConstants.STEPS_PER_WAYPOINT;
+                m_waypointsLeft[a_index]--;
+            }
+        }
+    }
+
+    /**
+     * Collision estimation, checking all the points of the collision sphere (see Ship.checkCollisions()).
+     * @param a_sphereX x coordinate of the center of the collision sphere.
+     * @param a_sphereY y coordinate of the center of the collision sphere.
+     * @param a_posX x coordinate of the potential position of the ship.
+     * @param a_posY y coordinate of the potential position of the ship.
+     * @param a_speedX x coordinate of the potential speed of the ship.
+     * @param a_speedY y coordinate of the potential speed of the ship.
+     * @return type of collisions (0: no collision, 1: collision up/down, 2: collision left/right)
+     */
+    private int checkCollisions(double a_sphereX, double a_sphereY, double a_posX, double a_posY,
+                                double a_speedX, double a_speedY)
+    {
+        for(int i = 0; i < NUM_SPHERE_POINTS; ++i)
+        {
+            double pointX = m_sphereX[i] + a_sphereX;
+            double pointY = m_sphereY[i] + a_sphereY;
+            int collision = m_map.getCollisionType((int)Math.round(pointX), (int)Math.round(pointY));
+            if(collision != 0)
+            {
+                double toCollX = pointX - a_posX;
+                double toCollY = pointY - a_posY;
+                double toCollMag = Math.sqrt(toCollX * toCollX + toCollY * toCollY);
+                if(Math.abs(toCollMag) >= 0.0001)
+                {
+                    toCollX /= toCollMag;
+                    toCollY /= toCollMag;
+                }
+
+                double velocityX = a_speedX;
+                double velocityY = a_speedY;
+                double velocityMag = Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+                if(Math.abs(velocityMag) >= 0.0001)
+                {
+                    velocityX /= velocityMag;
+                    velocityY /= velocityMag;
+                }
+
+                //This is to slide when in contact with walls instead of being stuck.
+                double dotProduct = velocityX * toCollX + velocityY * toCollY;
+                if(dotProduct > 0.5)
+                    return collision;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Creates the arrays of the batch for the given number of copies.
+     * @param a_capacity number of copies.
+     */
+    private void allocate(int a_capacity)
+    {
+        m_x = new double[a_capacity];
+        m_y = new double[a_capacity];
+        m_prevX = new double[a_capacity];
+        m_prevY = new double[a_capacity];
+        m_vx = new double[a_capacity];
+        m_vy = new double[a_capacity];
+        m_dx = new double[a_capacity];
+        m_dy = new double[a_capacity];
+        m_heading = new int[a_capacity];
+        m_shipStarted = new boolean[a_capacity];
+        m_collision = new boolean[a_capacity];
+        m_started = new boolean[a_capacity];
+        m_ended = new boolean[a_capacity];
+        m_stepsLeft = new int[a_capacity];
+        m_totalTime = new int[a_capacity];
+        m_waypointsLeft = new int[a_capacity];
+        m_collected = new long[a_capacity * m_words];
+    }
+
+    /**
+     * Returns the number of copies simulated.
+     * @return the number of copies simulated.
+     */
+    public int getNumShips() {return m_numShips;}
+
+    /**
+     * Gets the x coordinate of a ship.
+     * @param a_index index of the ship.
+     * @return the x coordinate of the ship.
+     */
+    public double getX(int a_index) {return m_x[a_index];}
+
+    /**
+     * Gets the y coordinate of a ship.
+     * @param a_index index of the ship.
+     * @return the y coordinate of the ship.
+     */
+    public double getY(int a_index) {return m_y[a_index];}
+
+    /**
+     * Gets the velocity of a ship in the x axis.
+     * @param a_index index of the ship.
+     * @return the velocity of the ship in the x axis.
+     */
+    public double getVelocityX(int a_index) {return m_vx[a_index];}
+
+    /**
+     * Gets the velocity of a ship in the y axis.
+     * @param a_index index of the ship.
+     * @return the velocity of the ship in the y axis.
+     */
+    public double getVelocityY(int a_index) {return m_vy[a_index];}
+
+    /**
+     * Gets the heading of a ship (see Ship.getHeading()).
+     * @param a_index index of the ship.
+     * @return the heading of the ship.
+     */
+    public int getHeading(int a_index) {return m_heading[a_index];}
+
+    /**
+     * Returns if there was a collision in the last step of a ship.
+     * @param a_index index of the ship.
+     * @return if there was a collision in the last step.
+     */
+    public boolean getCollLastStep(int a_index) {return m_collision[a_index];}
+
+    /**
+     * Indicates if a waypoint is collected in one of the copies.
+     * @param a_index index of the copy.
+     * @param a_waypoint index of the waypoint in Game.getWaypoints().
+     * @return true if the waypoint is collected.
+     */
+    public boolean isWaypointCollected(int a_index, int a_waypoint)
+    {
+        return (m_collected[a_index * m_words + (a_waypoint >>> 6)] & (1L << a_waypoint)) != 0;
+    }
+
+    /**
+     * Returns the number of waypoints visited in one of the copies.
+     * @param a_index index of the copy.
+     * @return the number of waypoints visited.
+     */
+    public int getWaypointsVisited(int a_index) {return m_waypoints.getNumWaypoints() - m_waypointsLeft[a_index];}
+
+    /**
+     * Returns the number of waypoints yet to be collected in one of the copies.
+     * @param a_index index of the copy.
+     * @return the number of waypoints left.
+     */
+    public int getWaypointsLeft(int a_index) {return m_waypointsLeft[a_index];}
+
+    /**
+     * Returns the number of steps left to collect the next waypoint in one of the copies.
+     * @param a_index index of the copy.
+     * @return the number of steps left.
+     */
+    public int getStepsLeft(int a_index) {return m_stepsLeft[a_index];}
+
+    /**
+     * Returns the time spent in one of the copies.
+     * @param a_index index of the copy.
+     * @return the time spent.
+     */
+    public int getTotalTime(int a_index) {return m_totalTime[a_index];}
+
+    /**
+     * Indicates if one of the copies has ended.
+     * @param a_index index of the copy.
+     * @return true if the game of the copy has ended.
+     */
+    public boolean isEnded(int a_index) {return m_ended[a_index];}
+}
@@ -4,7 +4,8 @@ import framework.utils.Vector2d;
 import java.awt.*;
 
 /**
- * This class represents the Waypoint object, that must be collected by the ship during the game.
+ * This class represents the Waypoint object, that must be collected by the ship during the game. Once added to a game,
+ * a waypoint is a view of one of its entries: whether it is collected is read from (and written to) the game.
  * PTSP-Competition
  * Created by Diego Perez, University of Essex.
  * Date: 19/12/11
@@ -12,9 +13,9 @@ import java.awt.*;
 public class Waypoint extends GameObject
 {
     /**
-     * Indicates if this waypoint has been collected in the game.
+     * Index of this waypoint in the game, -1 if it has not been added to a game yet.
      */
-    protected boolean collected;
+    int m_index = -1;
 
 
     /**
@@ -38,7 +39,6 @@ public class Waypoint extends GameObject
     {
         m_game = game;
         this.s = s;
-        this.collected = false;
         this.radius = RADIUS;
     }
 
@@ -62,7 +62,7 @@ public class Waypoint extends GameObject
      */
     public void draw(Graphics2D g)
     {
-        if(!collected)
+        if(!isCollected())
             g.setColor(Color.red);
         else
             g.setColor(Color.blue);
@@ -97,9 +97,10 @@ public class Waypoint extends GameObject
      */
     public void setCollected(boolean coll)
     {
-        if(!collected)
+        if(!isCollected())
         {
-            collected = coll;
+            if(coll && m_index >= 0)
+                m_game.setWaypointCollected(m_index);
             m_game.waypointCollected();
         }
     }
@@ -108,11 +109,11 @@ public class Waypoint extends GameObject
      * Indicates if this waypoint is already visted or not.
      * @return if this waypoint has been already collected.
      */
-    public boolean isCollected() {return this.collected;}
+    public boolean isCollected() {return m_index >= 0 && m_game.isWaypointCollected(m_index);}
 
 
     /**
-     *  Gets a copy of the waypoint.
+     *  Gets a copy of the waypoint. The copy reads its collected state from a_game.
      *
      * @param a_game Reference to the game object.
      * @return A copy of the waypoint.
@@ -127,7 +128,7 @@ public class Waypoint extends GameObject
         copied.d = this.d.copy();
         copied.m_game = a_game;
         copied.radius = this.radius;
-        copied.collected = this.collected;
+        copied.m_index = this.m_index;
 
         return copied;
     }
@@ -0,0 +1,114 @@
+package framework.core;
+
+/**
+ * Uniform grid over the waypoints of a game, used to check only the waypoints close to the ship when looking for
+ * collected waypoints. Each cell of the grid lists (in increasing order) the indexes of the waypoints that can be
+ * collected by a ship whose center lies in that cell. The grid never changes once built, and it is part of the
+ * WaypointLayout shared by a game and all its copies.
+ */
+public class WaypointGrid
+{
+    /**
+     * Size, in pixels, of the side of a cell.
+     */
+    public static final int CELL_SIZE = 32;
+
+    /**
+     * Shared array for the cells without waypoints.
+     */
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Number of cells in the x axis.
+     */
+    private final int m_numCellsX;
+
+    /**
+     * Number of cells in the y axis.
+     */
+    private final int m_numCellsY;
+
+    /**
+     * Indexes of the waypoints that can be collected from each cell, indexed by x * m_numCellsY + y.
+     */
+    private final int[][] m_cells;
+
+    /**
+     * Builds the grid for the given waypoints.
+     * @param a_layout positions and radii of the waypoints.
+     * @param a_width width of the map.
+     * @param a_height height of the map.
+     * @param a_shipRadius radius of the ship collecting the waypoints.
+     */
+    public WaypointGrid(WaypointLayout a_layout, int a_width, int a_height, int a_shipRadius)
+    {
+        m_numCellsX = Math.max(1, (a_width + CELL_SIZE - 1) / CELL_SIZE);
+        m_numCellsY = Math.max(1, (a_height + CELL_SIZE - 1) / CELL_SIZE);
+
+        //Count the waypoints of each cell first, to allocate the exact size.
+        int[] counts = new int[m_numCellsX * m_numCellsY];
+        for(int w = 0; w < a_layout.getNumWaypoints(); ++w)
+        {
+            int reach = a_layout.getRadius(w) + a_shipRadius;
+            int minX = cellX(a_layout.getX(w) - reach), maxX = cellX(a_layout.getX(w) + reach);
+            int minY = cellY(a_layout.getY(w) - reach), maxY = cellY(a_layout.getY(w) + reach);
+            for(int x = minX; x <= maxX; ++x)
+                for(int y = minY; y <= maxY; ++y)
+                    counts[x * m_numCellsY + y]++;
+        }
+
+        m_cells = new int[counts.length][];
+        for(int i = 0; i < counts.length; ++i)
+            m_cells[i] = counts[i] == 0 ? EMPTY : new int[counts[i]];
+
+        //Fill the cells in the order of the waypoints, so indexes are sorted in each cell.
+        int[] filled = new int[counts.length];
+        for(int w = 0; w < a_layout.getNumWaypoints(); ++w)
+        {
+            int reach = a_layout.getRadius(w) + a_shipRadius;
+            int minX = cellX(a_layout.getX(w) - reach), maxX = cellX(a_layout.getX(w) + reach);
+            int minY = cellY(a_layout.getY(w) - reach), maxY = cellY(a_layout.getY(w) + reach);
+            for(int x = minX; x <= maxX; ++x)
+            {
+                for(int y = minY; y <= maxY; ++y)
+                {
+                    int cell = x * m_numCellsY + y;
+                    m_cells[cell][filled[cell]++] = w;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the indexes of the waypoints that a ship at the given position may have collected.
+     * @param a_x x coordinate of the ship.
+     * @param a_y y coordinate of the ship.
+     * @return the indexes (in Game.getWaypoints()) of the waypoints to check, in increasing order. Must not be modified.
+     */
+    public int[] getCandidates(double a_x, double a_y)
+    {
+        return m_cells[cellX(a_x) * m_numCellsY + cellY(a_y)];
+    }
+
+    /**
+     * Gets the column of the cell of a coordinate, clamped to the grid.
+     * @param a_x x coordinate.
+     * @return the column of the cell.
+     */
+    private int cellX(double a_x)
+    {
+        int x = (int) Math.floor(a_x / CELL_SIZE);
+        return x < 0 ? 0 : (x >= m_numCellsX ? m_numCellsX - 1 : x);
+    }
+
+    /**
+     * Gets the row of the cell of a coordinate, clamped to the grid.
+     * @param a_y y coordinate.
+     * @return the row of the cell.
+     */
+    private int cellY(double a_y)
+    {
+        int y = (int) Math.floor(a_y / CELL_SIZE);
+        return y < 0 ? 0 : (y >= m_numCellsY ? m_numCellsY - 1 : y);
+    }
+}
@@ -0,0 +1,103 @@
+package framework.core;
+
+import java.util.ArrayList;
+
+/**
+ * Positions and radii of the waypoints of a game, together with the grid used to find them. Waypoints never move, so
+ * a game and all its copies share the same layout; which waypoints are collected is kept by each game in a bitset.
+ */
+public class WaypointLayout
+{
+    /**
+     * x coordinates of the waypoints.
+     */
+    private final double[] m_x;
+
+    /**
+     * y coordinates of the waypoints.
+     */
+    private final double[] m_y;
+
+    /**
+     * Radius of each waypoint.
+     */
+    private final int[] m_radius;
+
+    /**
+     * Grid over the waypoints, to check only the waypoints close to the ship.
+     */
+    private final WaypointGrid m_grid;
+
+    /**
+     * Builds the layout of the given waypoints.
+     * @param a_waypoints waypoints of the game.
+     * @param a_width width of the map.
+     * @param a_height height of the map.
+     */
+    public WaypointLayout(ArrayList<Waypoint> a_waypoints, int a_width, int a_height)
+    {
+        int numWaypoints = a_waypoints.size();
+        m_x = new double[numWaypoints];
+        m_y = new double[numWaypoints];
+        m_radius = new int[numWaypoints];
+        for(int i = 0; i < numWaypoints; ++i)
+        {
+            Waypoint way = a_waypoints.get(i);
+            m_x[i] = way.s.x;
+            m_y[i] = way.s.y;
+            m_radius[i] = way.radius;
+        }
+
+        m_grid = new WaypointGrid(this, a_width, a_height, Ship.SHIP_RADIUS);
+    }
+
+    /**
+     * Check if a waypoint is collected, given the position of the ship (see Waypoint.checkCollected()).
+     * @param a_index index of the waypoint.
+     * @param a_x x coordinate of the ship.
+     * @param a_y y coordinate of the ship.
+     * @param a_radius Radius of the ship.
+     * @return true if the waypoint is collected.
+     */
+    public boolean checkCollected(int a_index, double a_x, double a_y, int a_radius)
+    {
+        double xd = m_x[a_index] - a_x;
+        double yd = m_y[a_index] - a_y;
+
+        int radSum = a_radius + m_radius[a_index];
+        return xd*xd+yd*yd < radSum * radSum;
+    }
+
+    /**
+     * Returns the number of waypoints.
+     * @return the number of waypoints.
+     */
+    public int getNumWaypoints() {return m_x.length;}
+
+    /**
+     * Gets the x coordinate of a waypoint.
+     * @param a_index index of the waypoint.
+     * @return the x coordinate of the waypoint.
+     */
+    public double getX(int a_index) {return m_x[a_index];}
+
+    /**
+     * Gets the y coordinate of a waypoint.
+     * @param a_index index of the waypoint.
+     * @return the y coordinate of the waypoint.
+     */
+    public double getY(int a_index) {return m_y[a_index];}
+
+    /**
+     * Gets the radius of a waypoint.
+     * @param a_index index of the waypoint.
+     * @return the radius of the waypoint.
+     */
+    public int getRadius(int a_index) {return m_radius[a_index];}
+
+    /**
+     * Gets the grid over the waypoints.
+     * @return the grid over the waypoints.
+     */
+    public WaypointGrid getGrid() {return m_grid;}
+}